@@ -0,0 +1,300 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import static apps.Convert.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+
+/**
+ * Stores backups of the update files (see {@link ConvertUpdates}) gzipped and
+ * named by the SHA-256 hash of their content, so the same content is stored
+ * only once, e.g. the empty files of runs without updates, or a time span that
+ * was harvested again. The index file lists the time window, the file name and
+ * the hash of every backup, one per line, in the order they were stored. Any
+ * time range can be replayed into the files used for indexing the updates.
+ *
+ * Replay with: sbt "runMain apps.BackupStore replay 2026-01-01T00:00:00Z
+ * 2026-01-08T00:00:00Z", then index with: sbt "runMain apps.Index updates"
+ *
+ * Delete backups of windows ending more than 270 days ago with: sbt "runMain
+ * apps.BackupStore prune 270"
+ */
+public final class BackupStore {
+
+	static final String INDEX = "index.tsv";
+	private static final String OBJECTS = "objects";
+	private static final String SUFFIX = ".gz";
+
+	private final Path dir;
+
+	/** A backup in the index */
+	static final class Entry {
+		/** The start of the time window, a CET time like in the backup names */
+		final String start;
+		/** The end of the time window */
+		final String end;
+		/** The name of the backed up file, e.g. GND-updates.jsonl */
+		final String name;
+		/** The SHA-256 hash of the content */
+		final String hash;
+		/** The size of the uncompressed content in bytes */
+		final long bytes;
+
+		Entry(String start, String end, String name, String hash, long bytes) {
+			this.start = start;
+			this.end = end;
+			this.name = name;
+			this.hash = hash;
+			this.bytes = bytes;
+		}
+
+		// The time strings have a fixed format, so they compare like the times
+		boolean overlaps(String from, String until) {
+			return end.compareTo(from) > 0 && start.compareTo(until) < 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.join("\t", start, end, name, hash, String.valueOf(bytes));
+		}
+
+		static Entry parse(String line) {
+			String[] fields = line.split("\t");
+			return new Entry(fields[0], fields[1], fields[2], fields[3], Long.parseLong(fields[4]));
+		}
+	}
+
+	/** @param dir The directory of the store, created if it doesn't exist */
+	BackupStore(Path dir) throws IOException {
+		this.dir = dir;
+		Files.createDirectories(dir.resolve(OBJECTS));
+	}
+
+	public static void main(String[] args) throws IOException {
+		BackupStore store = new BackupStore(Paths.get(config("data.backup")));
+		if (args.length == 3 && args[0].equals("replay")) {
+			int replayed = store.replay(args[1], args[2], Paths.get(config("data.updates.data")),
+					Paths.get(config("index.delete.updates")));
+			System.out.printf("Replayed %s backups from %s until %s\n", replayed, args[1], args[2]);
+		} else if (args.length == 2 && args[0].equals("prune")) {
+			String before = ZonedDateTime.now().minusDays(Long.parseLong(args[1]))
+					.format(ConvertUpdates.dateTimeFormatter);
+			System.out.printf("Deleted %s backups of windows ending before %s\n", store.prune(before), before);
+		} else {
+			System.err.println("Pass `replay <from> <until>` to replay the backups of a time range "
+					+ "(times like 2026-01-01T00:00:00Z) into `data.updates.data` and `index.delete.updates`, "
+					+ "or `prune <days>` to delete the backups of windows that ended more than <days> days ago.");
+		}
+	}
+
+	/**
+	 * @param source The file to back up
+	 * @param start The start of the time window of the file
+	 * @param end The end of the time window of the file
+	 * @return The entry added to the index
+	 */
+	synchronized Entry store(Path source, String start, String end) throws IOException {
+		Path temp = Files.createTempFile(dir.resolve(OBJECTS), "backup", SUFFIX + ".tmp");
+		String hash;
+		long bytes;
+		try (HashingInputStream in = new HashingInputStream(Hashing.sha256(),
+				new BufferedInputStream(Files.newInputStream(source)));
+				OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), 1 << 16)) {
+			bytes = copy(in, out);
+			hash = in.hash().toString();
+		}
+		Path object = object(hash);
+		if (Files.exists(object)) {
+			Files.delete(temp);
+		} else {
+			// moved when complete, so an object always has the full content of its hash
+			Files.move(temp, object, StandardCopyOption.ATOMIC_MOVE);
+		}
+		Entry entry = new Entry(start, end, source.getFileName().toString(), hash, bytes);
+		try (Writer writer = Files.newBufferedWriter(dir.resolve(INDEX), StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			writer.write(entry + "\n");
+		}
+		return entry;
+	}
+
+	/** @return The entries of the index, in the order they were stored */
+	synchronized List<Entry> entries() throws IOException {
+		Path index = dir.resolve(INDEX);
+		List<Entry> entries = new ArrayList<>();
+		if (Files.exists(index)) {
+			for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+				if (!line.trim().isEmpty()) {
+					entries.add(Entry.parse(line));
+				}
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Write the content of the backups of the given file name with windows
+	 * overlapping the given time range to the output, in the order they were
+	 * stored. Content stored more than once is read only once, at its last
+	 * position. Records in more than one backup, e.g. a record changed in
+	 * several windows, are written only once, at their last position, so only
+	 * their most recent version is indexed, whatever the order of indexing (see
+	 * {@link Index#indexData}). In bulk JSON lines, records are identified by
+	 * the `_id` of their action line, in other files by their `id`, or by the
+	 * line itself, e.g. in the lists of deprecated IDs.
+	 *
+	 * @param name The name of the backed up file, e.g. GND-updates.jsonl
+	 * @param from The start of the time range, a CET time like 2026-01-01T00:00:00Z
+	 * @param until The end of the time range
+	 * @param out The output to write the content to
+	 * @return The number of backups written
+	 */
+	int replay(String name, String from, String until, OutputStream out) throws IOException {
+		List<Entry> selected = new ArrayList<>();
+		for (Entry entry : entries()) {
+			if (entry.name.equals(name) && entry.bytes > 0 && entry.overlaps(from, until)) {
+				selected.add(entry);
+			}
+		}
+		Map<String, Integer> last = new HashMap<>();
+		for (int i = 0; i < selected.size(); i++) {
+			last.put(selected.get(i).hash, i);
+		}
+		List<Entry> replayed = new ArrayList<>();
+		for (int i = 0; i < selected.size(); i++) {
+			if (last.get(selected.get(i).hash) == i) {
+				replayed.add(selected.get(i));
+			}
+		}
+		// the position of the last occurrence of each record, then the records at these positions
+		Map<String, Long> lastRecords = new HashMap<>();
+		forEachRecord(replayed, (position, id, lines) -> lastRecords.put(id, position));
+		forEachRecord(replayed, (position, id, lines) -> {
+			if (lastRecords.get(id) == position) {
+				for (byte[] line : lines) {
+					out.write(line);
+					out.write('\n');
+				}
+			}
+		});
+		out.flush();
+		return replayed.size();
+	}
+
+	private interface RecordVisitor {
+		void visit(long position, String id, byte[]... lines) throws IOException;
+	}
+
+	private void forEachRecord(List<Entry> entries, RecordVisitor visitor) throws IOException {
+		long position = 0;
+		for (Entry entry : entries) {
+			try (BulkLines lines = new BulkLines(new GZIPInputStream(Files.newInputStream(object(entry.hash)),
+					1 << 16))) {
+				byte[] line;
+				while ((line = lines.next()) != null) {
+					if (line.length == 0) {
+						continue;
+					}
+					if (BulkLines.isAction(line)) {
+						byte[] record = lines.next();
+						byte[][] item = record == null ? new byte[][] { line } : new byte[][] { line, record };
+						visitor.visit(position++, String.valueOf(BulkLines.actionId(line)), item);
+					} else {
+						String id = line[0] == '{' ? BulkLines.documentId(line) : null;
+						visitor.visit(position++, id != null ? id : new String(line, StandardCharsets.UTF_8), line);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replay the converted updates and the deprecated IDs of the given time range
+	 * into the files used for indexing the updates, see {@link Index}.
+	 *
+	 * @param from The start of the time range, a CET time like 2026-01-01T00:00:00Z
+	 * @param until The end of the time range
+	 * @param data The file to write the converted updates to
+	 * @param deprecated The file to write the deprecated IDs to
+	 * @return The number of backups written
+	 */
+	int replay(String from, String until, Path data, Path deprecated) throws IOException {
+		int replayed = 0;
+		for (Path file : new Path[] { data, deprecated }) {
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+				replayed += replay(file.getFileName().toString(), from, until, out);
+			}
+		}
+		return replayed;
+	}
+
+	/**
+	 * @param before Remove the entries of windows ending before this time, a CET
+	 *            time like 2026-01-01T00:00:00Z
+	 * @return The number of entries removed
+	 */
+	synchronized int prune(String before) throws IOException {
+		List<Entry> entries = entries();
+		List<Entry> kept = new ArrayList<>();
+		Set<String> referenced = new HashSet<>();
+		for (Entry entry : entries) {
+			if (entry.end.compareTo(before) >= 0) {
+				kept.add(entry);
+				referenced.add(entry.hash);
+			}
+		}
+		Path index = dir.resolve(INDEX);
+		Path newIndex = dir.resolve(INDEX + ".tmp");
+		try (Writer writer = Files.newBufferedWriter(newIndex, StandardCharsets.UTF_8)) {
+			for (Entry entry : kept) {
+				writer.write(entry + "\n");
+			}
+		}
+		Files.move(newIndex, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		for (Entry entry : entries) {
+			if (!referenced.contains(entry.hash)) {
+				Files.deleteIfExists(object(entry.hash));
+			}
+		}
+		return entries.size() - kept.size();
+	}
+
+	private Path object(String hash) {
+		return dir.resolve(OBJECTS).resolve(hash + SUFFIX);
+	}
+
+	private static long copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[1 << 16];
+		long bytes = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+			bytes += read;
+		}
+		return bytes;
+	}
+}
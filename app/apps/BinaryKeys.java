@@ -0,0 +1,89 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import java.util.Arrays;
+
+/**
+ * Comparing and sorting binary keys, stored as UTF-8 bytes in arrays or files,
+ * without creating an object per key (see {@link SortedKeyValueFile} and
+ * {@link LabelDictionary}).
+ */
+final class BinaryKeys {
+
+	/** The bytes the keys are stored in, e.g. an array or a mapped file. */
+	interface ByteSource {
+		/**
+		 * @param position The position of a byte in the source
+		 * @return The byte at the position
+		 */
+		byte at(long position);
+	}
+
+	/** Compares the keys of two entries, e.g. given by their positions. */
+	interface EntryComparator {
+		/**
+		 * @return A negative number, zero, or a positive number if the key of
+		 *         entry a is less than, equal to, or greater than the key of b
+		 */
+		int compare(long a, long b);
+	}
+
+	private BinaryKeys() {
+		// static methods only
+	}
+
+	/**
+	 * Compare two keys byte by byte, as unsigned bytes, so UTF-8 keys sort like
+	 * their code points.
+	 */
+	static int compare(ByteSource a, long aStart, int aLength, ByteSource b, long bStart, int bLength) {
+		for (int i = 0; i < Math.min(aLength, bLength); i++) {
+			int comparison = Integer.compare(a.at(aStart + i) & 0xff, b.at(bStart + i) & 0xff);
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+		return Integer.compare(aLength, bLength);
+	}
+
+	/**
+	 * @param entries The entries, in the order they were added; sorted in place
+	 * @param comparator The comparator for the keys of the entries
+	 * @return The entries sorted by key, with only the last entry added for each
+	 *         key, like indexing
+	 */
+	static long[] sortedUnique(long[] entries, EntryComparator comparator) {
+		mergeSort(entries, new long[entries.length], 0, entries.length, comparator);
+		int unique = 0;
+		for (int i = 0; i < entries.length; i++) {
+			if (i == entries.length - 1 || comparator.compare(entries[i], entries[i + 1]) != 0) {
+				entries[unique++] = entries[i];
+			}
+		}
+		return Arrays.copyOf(entries, unique);
+	}
+
+	// stable, so entries with the same key stay in the order they were added
+	private static void mergeSort(long[] entries, long[] buffer, int from, int to, EntryComparator comparator) {
+		if (to - from < 2) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(entries, buffer, from, middle, comparator);
+		mergeSort(entries, buffer, middle, to, comparator);
+		if (comparator.compare(entries[middle - 1], entries[middle]) <= 0) {
+			return;
+		}
+		System.arraycopy(entries, from, buffer, from, to - from);
+		int left = from;
+		int right = middle;
+		for (int i = from; i < to; i++) {
+			if (right >= to || (left < middle && comparator.compare(buffer[left], buffer[right]) <= 0)) {
+				entries[i] = buffer[left++];
+			} else {
+				entries[i] = buffer[right++];
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
+
+import apps.ConversionMetrics.Stage;
+
+/**
+ * Writes bulk index data like an ObjectWriter (each object followed by a
+ * newline, in UTF-8), and keeps track of the number of bytes written, so that
+ * writing can be resumed at a checkpoint (see {@link Checkpoint}).
+ */
+class BulkFileWriter extends DefaultObjectReceiver<String> {
+
+	private final OutputStream out;
+	private long position;
+	private boolean closed;
+
+	/**
+	 * @param file The file to write
+	 * @param resumeAt The number of bytes of the existing file to keep and append
+	 *            to, or 0 to write a new file
+	 */
+	BulkFileWriter(Path file, long resumeAt) {
+		try {
+			if (resumeAt > 0) {
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+					if (channel.size() < resumeAt) {
+						throw new IllegalStateException(
+								String.format("Can't resume %s at %s, it has only %s bytes", file, resumeAt,
+										channel.size()));
+					}
+					channel.truncate(resumeAt);
+				}
+				this.out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND));
+			} else {
+				this.out = new BufferedOutputStream(Files.newOutputStream(file));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.position = resumeAt;
+	}
+
+	@Override
+	public synchronized void process(String bulk) {
+		long start = System.nanoTime();
+		byte[] bytes = bulk.getBytes(StandardCharsets.UTF_8);
+		try {
+			out.write(bytes);
+			out.write('\n');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		position += bytes.length + 1;
+		ConversionMetrics.time(Stage.WRITE, start);
+	}
+
+	/** @return The number of bytes written, including those kept on resume */
+	synchronized long position() {
+		return position;
+	}
+
+	/** Write any buffered data to the file. */
+	synchronized void flush() {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public synchronized void closeStream() {
+		if (!closed) {
+			closed = true;
+			try {
+				out.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
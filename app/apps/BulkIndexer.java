@@ -0,0 +1,322 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.text.Normalizer.Form;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.metafacture.framework.ObjectReceiver;
+import org.metafacture.framework.helpers.DefaultObjectPipe;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import apps.ConversionMetrics.Stage;
+import play.Logger;
+
+/**
+ * Indexes records in bulk requests, with an Elasticsearch {@link BulkProcessor}.
+ * A request is sent when it has `bulkSize` records or `bulkBytes` bytes, or
+ * when `flushMillis` have passed since the last one. Up to `maxInFlight`
+ * requests run at the same time. When that many are running, adding records
+ * waits, so e.g. conversion does not get ahead of indexing. Records rejected
+ * because Elasticsearch is overloaded are retried, waiting twice as long
+ * before each retry. The records can be converted records (see
+ * {@link Index#convertAndIndex}), passed on to the receiver if one is set, e.g.
+ * to write the bulk JSON lines for archiving, or bulk JSON lines read from
+ * disk (see {@link Index#indexData}). Deprecated records are deleted the same
+ * way, counted as deleted, not found, or failed.
+ */
+class BulkIndexer extends DefaultObjectPipe<String, ObjectReceiver<String>> implements Closeable {
+
+	private static final JsonFactory JSON = new JsonFactory();
+
+	private final String index;
+	private final String type;
+	private final BulkProcessor processor;
+	private final Map<Long, Long> started = new ConcurrentHashMap<>();
+	private final AtomicLong indexed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong deleted = new AtomicLong();
+	private final AtomicLong notFound = new AtomicLong();
+	private final List<String> failedDeletes = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+	private final long start = System.nanoTime();
+	private int running;
+
+	/**
+	 * @param client The client for the index
+	 * @param index The name of the index
+	 * @param type The type of the records
+	 * @param bulkSize The number of records to index with one request
+	 * @param maxInFlight The number of bulk requests to run at the same time
+	 */
+	BulkIndexer(Client client, String index, String type, int bulkSize, int maxInFlight) {
+		this(client, index, type, bulkSize, -1, -1, maxInFlight, 50, 8);
+	}
+
+	/**
+	 * @param client The client for the index
+	 * @param index The name of the index
+	 * @param type The type of the records
+	 * @param bulkSize The number of records to index with one request
+	 * @param bulkBytes The size of a request in bytes at which it is sent, -1
+	 *            for no limit
+	 * @param flushMillis The time after which a request is sent even if it is
+	 *            not full, -1 to wait until it is full
+	 * @param maxInFlight The number of bulk requests to run at the same time
+	 * @param retryWait The time to wait before retrying rejected records, in
+	 *            milliseconds, doubled for each further retry
+	 * @param retries The number of times to retry rejected records
+	 */
+	BulkIndexer(Client client, String index, String type, int bulkSize, long bulkBytes, long flushMillis,
+			int maxInFlight, long retryWait, int retries) {
+		this.index = index;
+		this.type = type;
+		BulkProcessor.Builder builder = BulkProcessor.builder(client, new Listener())
+				.setBulkActions(Math.max(1, bulkSize)).setBulkSize(new ByteSizeValue(bulkBytes))
+				.setConcurrentRequests(Math.max(1, maxInFlight))
+				.setBackoffPolicy(BackoffPolicy.wrap(
+						BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(retryWait), retries),
+						retried::incrementAndGet));
+		if (flushMillis > 0) {
+			builder.setFlushInterval(TimeValue.timeValueMillis(flushMillis));
+		}
+		this.processor = builder.build();
+	}
+
+	@Override
+	public void process(String json) {
+		String id = id(json);
+		if (id == null) {
+			Logger.error("No ID to index record: {}", json);
+		} else {
+			Form nfc = Normalizer.Form.NFC;
+			String data = Normalizer.isNormalized(json, nfc) ? json : Normalizer.normalize(json, nfc);
+			processor.add(new IndexRequest(index, type, id).source(data, XContentType.JSON));
+		}
+		if (getReceiver() != null) {
+			getReceiver().process(json);
+		}
+	}
+
+	/**
+	 * @param id The ID of the record
+	 * @param source The JSON of the record, as UTF-8 bytes in Unicode
+	 *            normalization form C (see {@link BulkLines#nfc(byte[])})
+	 */
+	void index(String id, byte[] source) {
+		index(id, source, null);
+	}
+
+	/**
+	 * @param id The ID of the record
+	 * @param source The JSON of the record, as UTF-8 bytes in Unicode
+	 *            normalization form C (see {@link BulkLines#nfc(byte[])})
+	 * @param acknowledged Run when the request with the record completed,
+	 *            successfully or not, or null
+	 */
+	void index(String id, byte[] source, Runnable acknowledged) {
+		processor.add(new IndexRequest(index, type, id).source(source, XContentType.JSON), acknowledged);
+	}
+
+	/**
+	 * @param id The ID of a record to delete, counted as deleted, not found, or
+	 *            failed when its request completed
+	 */
+	void delete(String id) {
+		processor.add(new DeleteRequest(index, type, id));
+	}
+
+	/** Send the remaining records and wait for all requests to complete. */
+	void flush() {
+		processor.flush();
+		synchronized (this) {
+			while (running > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					Logger.error("Interrupted while waiting for bulk requests to index {}", index);
+					return;
+				}
+			}
+		}
+	}
+
+	/** Send the remaining records, wait for all requests, and stop. */
+	@Override
+	public void close() {
+		flush();
+		try {
+			processor.awaitClose(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		Logger.info("Indexed {} docs into {}, deleted {}, {} not found, with {} requests, {} failed, {} retries, {}",
+				indexed.get(), index, deleted.get(), notFound.get(), requests.get(), failed.get(), retried.get(),
+				throughput());
+	}
+
+	/** @return The name of the index the records are indexed into */
+	String index() {
+		return index;
+	}
+
+	/** @return The number of records indexed successfully so far */
+	long indexed() {
+		return indexed.get();
+	}
+
+	/** @return The number of records that could not be indexed so far */
+	long failed() {
+		return failed.get();
+	}
+
+	/** @return The number of records deleted so far */
+	long deleted() {
+		return deleted.get();
+	}
+
+	/** @return The number of records to delete that were not in the index */
+	long notFound() {
+		return notFound.get();
+	}
+
+	/** @return The IDs of the records that could not be deleted so far */
+	List<String> failedDeletes() {
+		synchronized (failedDeletes) {
+			return new ArrayList<>(failedDeletes);
+		}
+	}
+
+	/** @return The number of bulk requests sent so far */
+	long requests() {
+		return requests.get();
+	}
+
+	@Override
+	protected void onCloseStream() {
+		flush();
+	}
+
+	/**
+	 * @param json The JSON of a record
+	 * @return The GND ID from the top-level `id` of the record (like in
+	 *         {@link Index#indexData}), or null if it has none
+	 */
+	static String id(String json) {
+		try (JsonParser parser = JSON.createParser(json)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return null;
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				if (parser.nextToken() == JsonToken.VALUE_STRING && field.equals("id")) {
+					String[] idUriParts = parser.getText().split("/");
+					return idUriParts[idUriParts.length - 1].replace("#!", "");
+				}
+				parser.skipChildren();
+			}
+		} catch (IOException e) {
+			Logger.error("Could not read ID of record: {}", e.getMessage());
+		}
+		return null;
+	}
+
+	private String throughput() {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return String.format("%.1f docs/s, %.1f MB/s", indexed.get() / seconds, bytes.get() / 1e6 / seconds);
+	}
+
+	private class Listener implements BulkProcessor.Listener {
+
+		@Override
+		public void beforeBulk(long executionId, BulkRequest request) {
+			started.put(executionId, System.nanoTime());
+			requests.incrementAndGet();
+			synchronized (BulkIndexer.this) {
+				running++;
+			}
+		}
+
+		@Override
+		public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+			response.forEach(item -> {
+				boolean delete = item.getOpType() == DocWriteRequest.OpType.DELETE;
+				if (item.isFailed()) {
+					failed.incrementAndGet();
+					if (delete) {
+						failedDeletes.add(item.getId());
+					}
+					Logger.error("{} {} failed: {}", delete ? "Deleting" : "Indexing", item.getId(),
+							item.getFailureMessage());
+				} else if (!delete) {
+					indexed.incrementAndGet();
+				} else if (item.getResponse().getResult() == DocWriteResponse.Result.DELETED) {
+					deleted.incrementAndGet();
+				} else {
+					notFound.incrementAndGet();
+				}
+			});
+			bytes.addAndGet(request.estimatedSizeInBytes());
+			Logger.info("Indexed {} docs, took: {}, total: {}, {}", response.getItems().length, response.getTook(),
+					indexed.get(), throughput());
+			completed(executionId, request);
+		}
+
+		@Override
+		public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+			failed.addAndGet(request.numberOfActions());
+			for (DocWriteRequest<?> item : request.requests()) {
+				if (item.opType() == DocWriteRequest.OpType.DELETE) {
+					failedDeletes.add(item.id());
+				}
+			}
+			Logger.error("Bulk request to index {} failed: {} ({})", index, failure.getClass(), failure.getMessage());
+			completed(executionId, request);
+		}
+
+		private void completed(long executionId, BulkRequest request) {
+			if (request.payloads() != null) {
+				for (Object acknowledged : request.payloads()) {
+					if (acknowledged instanceof Runnable) {
+						((Runnable) acknowledged).run();
+					}
+				}
+			}
+			Long requestStart = started.remove(executionId);
+			if (requestStart != null) {
+				ConversionMetrics.time(Stage.INDEX, requestStart);
+			}
+			synchronized (BulkIndexer.this) {
+				running--;
+				BulkIndexer.this.notifyAll();
+			}
+		}
+	}
+}
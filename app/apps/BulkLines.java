@@ -0,0 +1,227 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.text.Normalizer.Form;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import play.Logger;
+
+/**
+ * Reads JSON lines for indexing (see {@link Index#indexData}) as UTF-8 bytes,
+ * without decoding them to strings or parsing the records. In bulk JSON lines,
+ * the ID is scanned from the `_id` of the action lines. In files with one
+ * record per line, the ID is read from the top-level `id` of the record, which
+ * comes before the large fields. The bytes that were read are the source sent
+ * to Elasticsearch.
+ */
+final class BulkLines implements Closeable {
+
+	private static final byte[] ID_KEY = "\"_id\"".getBytes(StandardCharsets.UTF_8);
+	private static final JsonFactory JSON = new JsonFactory();
+	// UTF-8 lead bytes from here encode code points from U+0300, the first one that may not be in NFC
+	private static final int NFC_CHECK_LEAD_BYTE = 0xCC;
+
+	private final InputStream in;
+	private final byte[] buffer;
+	private int position;
+	private int limit;
+	private long offset;
+	private byte[] line = new byte[1 << 12];
+
+	/** @param in The UTF-8 JSON lines */
+	BulkLines(InputStream in) {
+		this(in, 1 << 16);
+	}
+
+	BulkLines(InputStream in, int bufferSize) {
+		this.in = in;
+		this.buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * @return The bytes of the next line, without the line break, or null at
+	 *         the end of the input
+	 */
+	byte[] next() throws IOException {
+		int length = 0;
+		boolean read = false;
+		while (true) {
+			if (position == limit) {
+				limit = Math.max(0, in.read(buffer));
+				position = 0;
+				if (limit == 0) {
+					return read ? copy(length) : null;
+				}
+			}
+			read = true;
+			int end = position;
+			while (end < limit && buffer[end] != '\n') {
+				end++;
+			}
+			if (length + end - position > line.length) {
+				line = Arrays.copyOf(line, Math.max(line.length * 2, length + end - position));
+			}
+			System.arraycopy(buffer, position, line, length, end - position);
+			length += end - position;
+			offset += end - position;
+			if (end < limit) {
+				position = end + 1;
+				offset++;
+				return copy(length);
+			}
+			position = end;
+		}
+	}
+
+	/** @return The number of bytes read, up to the start of the next line */
+	long offset() {
+		return offset;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * @param line A line of JSON
+	 * @return True if the line is a bulk action line like
+	 *         `{"index":{"_id":...}}`, i.e. the input is in the bulk format
+	 */
+	static boolean isAction(byte[] line) {
+		int i = 0;
+		while (i < line.length && line[i] != '"') {
+			i++;
+		}
+		return startsWith(line, i, "\"index\"") || startsWith(line, i, "\"create\"");
+	}
+
+	/**
+	 * @param line A bulk action line like `{"index":{"_id":...}}`
+	 * @return The GND ID from the `_id` of the action, or null if it has none.
+	 *         Like when the action lines were parsed, a non-string `_id` is
+	 *         used as text, e.g. "null".
+	 */
+	static String actionId(byte[] line) {
+		int key = indexOf(line, ID_KEY);
+		if (key < 0) {
+			return null;
+		}
+		int i = key + ID_KEY.length;
+		while (i < line.length && (line[i] == ':' || line[i] == ' ' || line[i] == '\t')) {
+			i++;
+		}
+		if (i == line.length || line[i] != '"') {
+			// not a string, e.g. null for records without ID: like before, e.g. "null"
+			return parsedActionId(line);
+		}
+		int start = ++i;
+		while (i < line.length && line[i] != '"') {
+			if (line[i] == '\\') {
+				// escaped characters in the ID, not written by us, but valid
+				return parsedActionId(line);
+			}
+			i++;
+		}
+		return i == line.length ? null : gndId(new String(line, start, i - start, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param line A record, one JSON object on one line
+	 * @return The GND ID from the top-level `id` of the record, or null if it
+	 *         has none
+	 */
+	static String documentId(byte[] line) {
+		try (JsonParser parser = JSON.createParser(line)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return null;
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				if (parser.nextToken() == JsonToken.VALUE_STRING && field.equals("id")) {
+					return gndId(parser.getText());
+				}
+				parser.skipChildren();
+			}
+		} catch (IOException e) {
+			Logger.error("Could not read ID of record: {}", e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * @param line A record as UTF-8 bytes
+	 * @return The record in Unicode normalization form C, the given bytes if
+	 *         they are normalized. Only records with characters from U+0300 are
+	 *         decoded to check that.
+	 */
+	static byte[] nfc(byte[] line) {
+		for (byte b : line) {
+			if ((b & 0xFF) >= NFC_CHECK_LEAD_BYTE) {
+				String json = new String(line, StandardCharsets.UTF_8);
+				Form nfc = Normalizer.Form.NFC;
+				return Normalizer.isNormalized(json, nfc) ? line
+						: Normalizer.normalize(json, nfc).getBytes(StandardCharsets.UTF_8);
+			}
+		}
+		return line;
+	}
+
+	// Like the IDs in the bulk JSON lines of the records converted before
+	private static String gndId(String uri) {
+		String[] idUriParts = uri.split("/");
+		return idUriParts[idUriParts.length - 1].replace("#!", "");
+	}
+
+	private static String parsedActionId(byte[] line) {
+		try {
+			JsonNode id = new ObjectMapper().readTree(line).findValue("_id");
+			return id == null ? null : gndId(id.asText());
+		} catch (IOException e) {
+			Logger.error("Could not read ID of action: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	private byte[] copy(int length) {
+		// a line break may be \r\n
+		return Arrays.copyOf(line, length > 0 && line[length - 1] == '\r' ? length - 1 : length);
+	}
+
+	private static int indexOf(byte[] line, byte[] key) {
+		for (int i = 0; i <= line.length - key.length; i++) {
+			if (startsWith(line, i, key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean startsWith(byte[] line, int offset, String prefix) {
+		return startsWith(line, offset, prefix.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static boolean startsWith(byte[] line, int offset, byte[] prefix) {
+		if (offset + prefix.length > line.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (line[offset + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,124 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import play.Logger;
+import play.libs.Json;
+
+/**
+ * The progress of a long conversion or indexing run, written periodically, to
+ * resume the run after an interruption: the output file or index written (a
+ * checkpoint is only used for the same one), the input file being processed (input
+ * files are processed in sorted order, so the files before it are done), the
+ * number of records of the file that are done, the length of the output written
+ * for them (for indexing: the length of the input file that is done, see
+ * {@link InputPart.Progress}), and the deprecated IDs collected so far.
+ */
+final class Checkpoint {
+
+	/** The output file or index the checkpoint is for */
+	final String target;
+	/** The input file being processed */
+	final String input;
+	/** The number of records of the input file that are done */
+	final long records;
+	/**
+	 * The number of bytes of output written for the records that are done, or
+	 * for indexing, the number of bytes of the input file that are done
+	 */
+	final long length;
+	/** The deprecated IDs collected so far */
+	final List<String> deprecated;
+
+	Checkpoint(String target, String input, long records, long length, Collection<String> deprecated) {
+		this.target = target;
+		this.input = input;
+		this.records = records;
+		this.length = length;
+		this.deprecated = new ArrayList<>(deprecated);
+	}
+
+	/**
+	 * @param configured The checkpoint file configured, e.g. `index.checkpoint`
+	 * @param target The output file or index written
+	 * @return The checkpoint file for the target: the configured file, with the
+	 *         name of the target added, so runs writing different targets (like
+	 *         the baseline and the updates) don't replace or delete the
+	 *         checkpoints of each other
+	 */
+	static Path file(String configured, String target) {
+		Path file = Paths.get(configured);
+		String name = file.getFileName().toString();
+		String key = Paths.get(target).getFileName().toString().replaceAll("[^\\w.-]", "_");
+		int extension = name.lastIndexOf('.');
+		return file.resolveSibling(extension < 0 ? name + "-" + key
+				: name.substring(0, extension) + "-" + key + name.substring(extension));
+	}
+
+	/**
+	 * @param file The checkpoint file
+	 * @param target The output file or index to resume writing
+	 * @return The checkpoint in the file, or null if there is no checkpoint for
+	 *         the target
+	 */
+	static Checkpoint read(Path file, String target) throws IOException {
+		if (!Files.exists(file)) {
+			Logger.warn("No checkpoint in {}, starting from the beginning", file);
+			return null;
+		}
+		JsonNode json = Json.parse(Files.readAllBytes(file));
+		List<String> deprecated = new ArrayList<>();
+		json.path("deprecated").forEach(id -> deprecated.add(id.textValue()));
+		Checkpoint checkpoint = new Checkpoint(json.path("target").asText(), json.get("input").textValue(),
+				json.get("records").longValue(), json.get("length").longValue(), deprecated);
+		if (!checkpoint.target.equals(target)) {
+			Logger.warn("Checkpoint in {} is for {}, not {}, starting from the beginning", file, checkpoint.target,
+					target);
+			return null;
+		}
+		Logger.info("Resuming from checkpoint in {}: {}", file, checkpoint);
+		return checkpoint;
+	}
+
+	/**
+	 * Write the checkpoint to a temporary file first, and replace the checkpoint
+	 * file with it, so an interruption while writing keeps the previous one.
+	 *
+	 * @param file The checkpoint file
+	 */
+	void write(Path file) throws IOException {
+		ObjectNode json = Json.newObject().put("target", target).put("input", input).put("records", records).put("length", length);
+		deprecated.forEach(json.putArray("deprecated")::add);
+		Path temp = Paths.get(file + ".tmp");
+		Files.write(temp, Json.stringify(json).getBytes(StandardCharsets.UTF_8));
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Logger.debug("Wrote checkpoint to {}: {}", file, this);
+	}
+
+	/**
+	 * @param file An input file
+	 * @return True if the file was processed completely before this checkpoint
+	 */
+	boolean isDone(String file) {
+		return file.compareTo(input) < 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("target=%s, input=%s, records=%s, length=%s, deprecated=%s", target, input, records,
+				length, deprecated.size());
+	}
+}
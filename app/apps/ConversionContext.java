@@ -0,0 +1,105 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+
+import com.github.jsonldjava.core.Context;
+import com.github.jsonldjava.core.JsonLdApi;
+import com.github.jsonldjava.core.JsonLdConsts;
+import com.github.jsonldjava.core.JsonLdError;
+import com.github.jsonldjava.core.JsonLdOptions;
+import com.github.jsonldjava.core.JsonLdProcessor;
+import com.github.jsonldjava.utils.JsonUtils;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The JSON-LD context, frame and options for converting records, processed
+ * once and shared by all conversions. Instances are immutable after
+ * construction and can be used from multiple threads.
+ */
+final class ConversionContext {
+
+	/** Our context document, as loaded from the context file. */
+	final Map<String, Object> document;
+	/** Builds the compacted JSON-LD for records without generic processing. */
+	final JsonLdBuilder builder;
+
+	private final Object contextObject;
+	private final Context context;
+	private final Map<String, Object> frame;
+	private final JsonLdOptions options = options();
+	private final String graphAlias;
+
+	/**
+	 * @param document The context document, with the context in its @context
+	 *            key
+	 * @param superclass The type of the root node of every record
+	 */
+	ConversionContext(Map<String, Object> document, String superclass) {
+		this.document = document;
+		this.contextObject = document.get(JsonLdConsts.CONTEXT);
+		try {
+			this.context = new Context(options).parse(contextObject);
+		} catch (JsonLdError e) {
+			throw new IllegalStateException("Could not process JSON-LD context", e);
+		}
+		// computed lazily and cached in the context, so compute before sharing
+		context.getInverse();
+		// not an immutable map, since framing clones it (and leaves it unchanged)
+		this.frame = new HashMap<>(ImmutableMap.of("@type", superclass, "@embed", "@always"));
+		this.builder = new JsonLdBuilder(contextObject, context, superclass);
+		this.graphAlias = builder.compactKeyword(JsonLdConsts.GRAPH);
+	}
+
+	/**
+	 * @param model The preprocessed model of a single record
+	 * @return The framed and compacted JSON-LD for the record
+	 */
+	Object toJsonLd(Model model) throws JsonLdError, IOException {
+		Object jsonLd = builder.build(model);
+		return jsonLd != null ? jsonLd : frameAndCompact(model);
+	}
+
+	/**
+	 * Generic conversion of a preprocessed model to compacted JSON-LD, used where
+	 * the {@link JsonLdBuilder} does not apply. Same as
+	 * {@link JsonLdProcessor#compact(Object, Object, JsonLdOptions)}, but with
+	 * our processed context.
+	 */
+	@SuppressWarnings("unchecked")
+	Object frameAndCompact(Model model) throws JsonLdError, IOException {
+		StringWriter out = new StringWriter();
+		RDFDataMgr.write(out, model, Lang.JSONLD);
+		Object jsonLd = JsonUtils.fromString(out.toString());
+		// framing changes and resets the options passed, so it gets its own
+		jsonLd = JsonLdProcessor.frame(jsonLd, frame, options());
+		List<Object> expanded = JsonLdProcessor.expand(jsonLd, options);
+		Object compacted = new JsonLdApi(options).compact(context, null, expanded, options.getCompactArrays());
+		if (compacted instanceof List) {
+			List<Object> list = (List<Object>) compacted;
+			compacted = new LinkedHashMap<>();
+			if (!list.isEmpty()) {
+				((Map<String, Object>) compacted).put(graphAlias, list);
+			}
+		}
+		((Map<String, Object>) compacted).put(JsonLdConsts.CONTEXT, contextObject);
+		return compacted;
+	}
+
+	private static JsonLdOptions options() {
+		JsonLdOptions options = new JsonLdOptions();
+		options.setCompactArrays(true);
+		options.setProcessingMode(JsonLdOptions.JSON_LD_1_1);
+		return options;
+	}
+}
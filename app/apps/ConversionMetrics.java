@@ -0,0 +1,296 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import play.Logger;
+import play.libs.Json;
+
+/**
+ * Timing and throughput of the conversion stages, with a counter and a latency
+ * histogram per stage. Recording a time is lock-free and cheap enough to be
+ * done for every record (or label) in production runs. Stages can be nested,
+ * e.g. `labels` is part of `preprocess`, which is part of `convert`.
+ */
+final class ConversionMetrics {
+
+	/** The stages of the conversion. */
+	enum Stage {
+		/** Reading, decompressing and decoding the XML, splitting the records */
+		SPLIT,
+		/** Converting a record, including the stages until `postprocess` */
+		CONVERT,
+		/** Parsing the RDF/XML of a record with Jena */
+		PARSE,
+		/** Applying the preprocessing rules to the model, including `labels` */
+		PREPROCESS,
+		/** Looking up the label of a linked resource */
+		LABELS,
+		/** Creating the framed and compacted JSON-LD */
+		JSONLD,
+		/** Creating the JSON tree from the JSON-LD */
+		POSTPROCESS,
+		/** Waiting for an Entity Facts request (batch), or a local store lookup */
+		ENTITYFACTS,
+		/** Passing on an enriched record: bulk format, writing and indexing */
+		OUTPUT,
+		/** Writing a record to the bulk JSON lines */
+		WRITE,
+		/** Waiting for a bulk index request */
+		INDEX;
+
+		String key() {
+			return name().toLowerCase();
+		}
+	}
+
+	/** The metrics of the current conversion */
+	static final ConversionMetrics METRICS = new ConversionMetrics();
+
+	private final Timer[] timers = new Timer[Stage.values().length];
+	private final LongAdder records = new LongAdder();
+	private final Map<String, Long> counts = new ConcurrentSkipListMap<>();
+	private volatile long start = System.nanoTime();
+
+	private ConversionMetrics() {
+		for (int i = 0; i < timers.length; i++) {
+			timers[i] = new Timer();
+		}
+	}
+
+	/**
+	 * @param stage The stage
+	 * @param start The System.nanoTime() when the stage started
+	 * @return The current System.nanoTime(), to use as the start of the next
+	 *         stage
+	 */
+	static long time(Stage stage, long start) {
+		long now = System.nanoTime();
+		METRICS.timers[stage.ordinal()].add(now - start);
+		return now;
+	}
+
+	/** Count a record that is done (converted and passed on). */
+	static void recordDone() {
+		METRICS.records.increment();
+	}
+
+	/**
+	 * Count something done before the conversion, e.g. records dropped from a
+	 * batch of updates (see {@link UpdateDeduplication}). Counts are kept until
+	 * they are reported, not reset for the conversion.
+	 *
+	 * @param name The name of the count in the report
+	 * @param value The value to add to the count
+	 */
+	static void count(String name, long value) {
+		METRICS.counts.merge(name, value, Long::sum);
+	}
+
+	/** Start counting from zero, for a new conversion. */
+	void reset() {
+		for (Timer timer : timers) {
+			timer.reset();
+		}
+		records.reset();
+		start = System.nanoTime();
+	}
+
+	/** @return The number of records done since the last reset */
+	long records() {
+		return records.sum();
+	}
+
+	/**
+	 * Log a progress line every `seconds` seconds, until the returned progress
+	 * is closed.
+	 *
+	 * @param seconds The interval in seconds, 0 to log no progress
+	 * @param totalBytes The size of all input
+	 * @param bytesRead Supplies the number of input bytes read so far
+	 * @return The progress logging, to close when the conversion is done
+	 */
+	Closeable logProgress(long seconds, long totalBytes, LongSupplier bytesRead) {
+		if (seconds <= 0) {
+			return () -> {
+			};
+		}
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "convert-progress");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long[] last = { System.nanoTime(), records() };
+		executor.scheduleAtFixedRate(() -> {
+			long now = System.nanoTime();
+			long done = records();
+			Logger.info(progress(done, done - last[1], now - last[0], now - start, bytesRead.getAsLong(),
+					totalBytes));
+			last[0] = now;
+			last[1] = done;
+		}, seconds, seconds, TimeUnit.SECONDS);
+		return executor::shutdownNow;
+	}
+
+	static String progress(long records, long intervalRecords, long intervalNanos, long elapsedNanos, long bytesRead,
+			long totalBytes) {
+		double fraction = totalBytes <= 0 ? 0 : Math.min(1, (double) bytesRead / totalBytes);
+		String eta = fraction <= 0 ? "unknown"
+				: format(Duration.ofNanos((long) (elapsedNanos * (1 - fraction) / fraction)));
+		return String.format("Progress: %s records, %.1f records/s (overall %.1f), %.1f%% of input, ETA %s",
+				records, perSecond(intervalRecords, intervalNanos), perSecond(records, elapsedNanos),
+				fraction * 100, eta);
+	}
+
+	/**
+	 * @param inputBytes The size of all input
+	 * @return The metrics as JSON: records, throughput, and for each stage the
+	 *         count, total time, and latency percentiles in microseconds
+	 */
+	ObjectNode report(long inputBytes) {
+		long elapsed = System.nanoTime() - start;
+		long done = records();
+		ObjectNode report = Json.newObject()//
+				.put("records", done)//
+				.put("seconds", elapsed / 1e9)//
+				.put("recordsPerSecond", perSecond(done, elapsed))//
+				.put("inputBytes", inputBytes);
+		if (!counts.isEmpty()) {
+			ObjectNode countsNode = report.putObject("counts");
+			counts.forEach(countsNode::put);
+		}
+		ObjectNode stages = report.putObject("stages");
+		for (Stage stage : Stage.values()) {
+			Timer timer = timers[stage.ordinal()];
+			long count = timer.count.sum();
+			if (count > 0) {
+				stages.putObject(stage.key())//
+						.put("count", count)//
+						.put("totalSeconds", timer.nanos.sum() / 1e9)//
+						.put("meanMicros", timer.nanos.sum() / 1e3 / count)//
+						.put("p50Micros", timer.percentile(0.5) / 1e3)//
+						.put("p90Micros", timer.percentile(0.9) / 1e3)//
+						.put("p99Micros", timer.percentile(0.99) / 1e3)//
+						.put("maxMicros", timer.max() / 1e3);
+			}
+		}
+		return report;
+	}
+
+	/**
+	 * Log the report and write it to a file, and clear the reported counts.
+	 *
+	 * @param file The file to write the report to, or null to only log it
+	 * @param inputBytes The size of all input
+	 */
+	void writeReport(Path file, long inputBytes) throws IOException {
+		String report = Json.prettyPrint(report(inputBytes));
+		counts.clear();
+		Logger.info("Conversion report: {}", report);
+		if (file != null) {
+			Files.write(file, report.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static double perSecond(long count, long nanos) {
+		return nanos <= 0 ? 0 : count * 1e9 / nanos;
+	}
+
+	private static String format(Duration duration) {
+		return String.format("%d:%02d:%02d", duration.toHours(), duration.toMinutes() % 60,
+				duration.getSeconds() % 60);
+	}
+
+	/**
+	 * Count, total and histogram of the times of a stage. The histogram buckets
+	 * split each power of two into 8 parts, so percentiles are within 12.5%.
+	 */
+	static final class Timer {
+
+		private static final int SUB_BUCKET_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+		final LongAdder count = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		private final AtomicLongArray buckets = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+
+		void add(long time) {
+			long value = Math.max(0, time);
+			count.increment();
+			nanos.add(value);
+			buckets.incrementAndGet(bucket(value));
+		}
+
+		void reset() {
+			count.reset();
+			nanos.reset();
+			for (int i = 0; i < buckets.length(); i++) {
+				buckets.set(i, 0);
+			}
+		}
+
+		/**
+		 * @param quantile The quantile, between 0 and 1
+		 * @return The upper bound of the bucket with the quantile, in nanoseconds
+		 */
+		long percentile(double quantile) {
+			long total = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				total += buckets.get(i);
+			}
+			long rank = (long) Math.ceil(quantile * total);
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if (seen >= Math.max(1, rank)) {
+					return upperBound(i);
+				}
+			}
+			return 0;
+		}
+
+		/** @return The upper bound of the highest bucket used, in nanoseconds */
+		long max() {
+			for (int i = buckets.length() - 1; i >= 0; i--) {
+				if (buckets.get(i) > 0) {
+					return upperBound(i);
+				}
+			}
+			return 0;
+		}
+
+		static int bucket(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+			return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | sub;
+		}
+
+		static long upperBound(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket + 1;
+			}
+			int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+			long sub = bucket & (SUB_BUCKETS - 1);
+			return (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS);
+		}
+	}
+}
@@ -4,42 +4,37 @@ package apps;
 
 import static models.AuthorityResource.ELEMENTSET;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.StringReader;
-import java.io.StringWriter;
 import java.net.InetAddress;
-import java.net.URI;
 import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Spliterator;
-import java.util.Spliterators;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
-
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
+import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.rdf.model.RDFNode;
-import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.riot.system.StreamRDFWrapper;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.Settings;
@@ -48,19 +43,14 @@ import org.elasticsearch.transport.client.PreBuiltTransportClient;
 import org.metafacture.framework.MetafactureException;
 import org.metafacture.framework.ObjectReceiver;
 import org.metafacture.framework.helpers.DefaultStreamPipe;
-import org.xml.sax.InputSource;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.github.jsonldjava.core.JsonLdOptions;
-import com.github.jsonldjava.core.JsonLdProcessor;
-import com.github.jsonldjava.utils.JsonUtils;
-import com.google.common.collect.ImmutableMap;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.typesafe.config.Config;
-import com.typesafe.config.ConfigObject;
 
+import apps.ConversionMetrics.Stage;
 import controllers.HomeController;
-import models.AuthorityResource;
-import models.GndOntology;
 import play.Logger;
 import play.libs.Json;
 
@@ -85,187 +75,262 @@ public class Convert {
 		return CONFIG.getString(id);
 	}
 
-	static final Map<String, Object> context = load();
+	static final ConversionContext conversion = new ConversionContext(load(), config("data.superclass"));
+
+	static final PreprocessRules rules = new PreprocessRules(CONFIG, conversion.document);
+
+	/** The local Entity Facts store, or null to use the Entity Facts index. */
+	static final EntityFactsStore ENTITYFACTS_STORE = EntityFactsStore.fromConfig();
+
+	/**
+	 * A converted record, before enrichment from Entity Facts, or the output of
+	 * a previous conversion reused for an unchanged record.
+	 */
+	static final class Converted {
+		final String id;
+		final JsonNode json;
+		/** The reused output, already enriched, or null */
+		final String output;
+		/** The hash of the source record for the manifest, or null */
+		final byte[] hash;
 
-	static class ToAuthorityJson extends DefaultStreamPipe<ObjectReceiver<String>> {
+		Converted(String id, JsonNode json) {
+			this(id, json, null);
+		}
+
+		Converted(String id, JsonNode json, byte[] hash) {
+			this.id = id;
+			this.json = json;
+			this.output = null;
+			this.hash = hash;
+		}
 
-		private final XPath xPath = XPathFactory.newInstance().newXPath();
-		Set<String> deprecated = new HashSet<>();
+		Converted(String id, String output, byte[] hash) {
+			this.id = id;
+			this.json = null;
+			this.output = output;
+			this.hash = hash;
+		}
+	}
+
+	static class ToAuthorityJson extends DefaultStreamPipe<ObjectReceiver<Converted>> {
+
+		final Set<String> deprecated;
+		final IncrementalConversion incremental;
+
+		ToAuthorityJson() {
+			this(new HashSet<>());
+		}
+
+		ToAuthorityJson(Set<String> deprecated) {
+			this(deprecated, null);
+		}
+
+		/**
+		 * @param deprecated Collects the IDs deprecated by the converted records
+		 * @param incremental The previous conversion to reuse the output of
+		 *            unchanged records from, or null to convert all records
+		 */
+		ToAuthorityJson(Set<String> deprecated, IncrementalConversion incremental) {
+			this.deprecated = deprecated;
+			this.incremental = incremental;
+		}
 
 		@Override
 		public void literal(String name, String value) {
-			String id = null;
-			try {
-				id = xPath.evaluate(
-						"/*[local-name() = 'RDF']/*[local-name() = 'Description']/*[local-name() = 'gndIdentifier']",
-						new InputSource(new BufferedReader(new StringReader(value))));
-			} catch (XPathExpressionException e) {
-				throw new MetafactureException(String.format("XPath evaluation failed for '%s'", name), e);
-			}
-			Model model = sourceModel(value);
-			String jsonLd = Convert.toJsonLd(id, model, false, deprecated);
-			if (jsonLd != null) {
-				getReceiver().process(jsonLd);
+			emit(convert(name, value));
+		}
+
+		Converted convert(String name, String value) {
+			long start = System.nanoTime();
+			// look up unchanged records by their ID without parsing, parse only the others
+			String id = incremental == null ? "" : RecordId.of(value);
+			byte[] hash = id.isEmpty() ? null : IncrementalConversion.hash(value);
+			Converted reused = hash == null ? null : incremental.reuse(id, hash, deprecated);
+			if (reused != null) {
+				ConversionMetrics.time(Stage.CONVERT, start);
+				return reused;
 			}
+			RecordStream record = RecordStream.parse(value);
+			ConversionMetrics.time(Stage.PARSE, start);
+			JsonNode json = Convert.toJson(record.id, record.model, false, deprecated);
+			ConversionMetrics.time(Stage.CONVERT, start);
+			return json == null ? null : new Converted(record.id, json, record.id.equals(id) ? hash : null);
 		}
 
-		private static Model sourceModel(String rdf) {
-			Model sourceModel = ModelFactory.createDefaultModel();
-			sourceModel.read(new BufferedReader(new StringReader(rdf)), null, "RDF/XML");
-			return sourceModel;
+		// Pass on a converted record, if any, with its hash for the manifest
+		void emit(Converted converted) {
+			if (converted != null) {
+				if (incremental != null) {
+					incremental.passedOn(converted);
+				}
+				getReceiver().process(converted);
+			}
 		}
 
-	}
+		/** Pass on any records that are still being converted. */
+		void flush() {
+		}
 
-	public static String toJsonLd(String id, Model sourceModel, boolean dev, Set<String> deprecated) {
-		String contextUrl = dev ? config("context.dev") : config("context.prod");
-		ImmutableMap<String, String> frame = ImmutableMap.of("@type", config("data.superclass"), "@embed", "@always");
-		JsonLdOptions options = new JsonLdOptions();
-		options.setCompactArrays(true);
-		options.setProcessingMode("json-ld-1.1");
-		try {
-			Model model = preprocess(sourceModel, id, deprecated);
-			StringWriter out = new StringWriter();
-			RDFDataMgr.write(out, model, Lang.JSONLD);
-			Object jsonLd = JsonUtils.fromString(out.toString());
-			jsonLd = JsonLdProcessor.frame(jsonLd, new HashMap<>(frame), options);
-			jsonLd = JsonLdProcessor.compact(jsonLd, context, options);
-			return postprocess(id, contextUrl, jsonLd);
-		} catch (Exception e) {
-			e.printStackTrace();
-			return null;
+		/** Release any resources held for converting records. */
+		void shutdown() {
 		}
-	}
 
-	private static Model preprocess(Model model, String id, Set<String> deprecated) {
-		String academicDegree = ELEMENTSET + "gnd#academicDegree";
-		String dateOfBirth = ELEMENTSET + "gnd#dateOfBirth";
-		String dateOfDeath = ELEMENTSET + "gnd#dateOfDeath";
-		String sameAsOwl = "http://www.w3.org/2002/07/owl#sameAs";
-		String sameAsSchema = "http://schema.org/sameAs";
-		String preferredName = ELEMENTSET + "gnd#preferredNameFor";
-		String variantName = ELEMENTSET + "gnd#variantNameFor";
-		String rdfSyntax = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
-		String type = rdfSyntax + "type";
-		String label = "http://www.w3.org/2000/01/rdf-schema#label";
-		String gnd = ELEMENTSET + "gnd#";
-		String collection = ELEMENTSET + "dnb#isDescribedIn";
-		String deprecatedUri = ELEMENTSET + "dnb#deprecatedUri";
-		String describedBy = "http://www.w3.org/2007/05/powder-s#describedby";
-		Set<Statement> toRemove = new HashSet<>();
-		Set<Statement> toAdd = new HashSet<>();
-		String contextAsString = context.toString();
-		model.listStatements().forEachRemaining(statement -> {
-			String s = statement.getSubject().toString();
-			String p = statement.getPredicate().toString();
-			RDFNode o = statement.getObject();
-			if (p.equals(deprecatedUri) && !s.equals(o.toString())) {
-				deprecated.add(o.toString().substring(AuthorityResource.GND_PREFIX.length()));
+		/**
+		 * Collects the triples of a single record into a model, picking up the GND
+		 * identifier while parsing, so each record is parsed only once.
+		 */
+		static class RecordStream extends StreamRDFWrapper {
+
+			private static final String GND_IDENTIFIER = ELEMENTSET + "gnd#gndIdentifier";
+			final Model model;
+			String id = "";
+			private boolean idFound = false;
+
+			private RecordStream(Model model) {
+				super(StreamRDFLib.graph(model.getGraph()));
+				this.model = model;
 			}
-			if (o.isURIResource()) {
-				if (s.equals(o.toString())) { // remove self-ref statements
-					toRemove.add(statement);
-				} else {
-					if (p.equals(sameAsOwl)) {
-						// Add `collection` details for `sameAs`
-						// See https://github.com/hbz/lobid-gnd/issues/69
-						Statement collectionStatement = model.createStatement(model.createResource(o.toString()),
-								model.createProperty(collection), model.createResource(collectionId(o.toString())));
-						toAdd.add(collectionStatement);
-						toAdd.addAll(collectionDetails(o.toString(), model));
-						// owl->schema:sameAs,https://github.com/hbz/lobid-gnd/issues/185
-						toRemove.add(statement);
-						toAdd.add(model.createStatement(statement.getSubject(), model.createProperty(sameAsSchema), o));
-					} else if (!p.equals(describedBy)) {
-						// Add `label` statement for any link
-						// See https://github.com/hbz/lobid-gnd/issues/85
-						// See https://github.com/hbz/lobid-gnd/issues/24
-						Statement labelStatement = model//
-								.createLiteralStatement(//
-										model.createResource(o.toString()), //
-										model.createProperty(label), //
-										GndOntology.label(o.toString()));
-						toAdd.add(labelStatement);
-					}
-				}
+
+			static RecordStream parse(String rdf) {
+				RecordStream record = new RecordStream(ModelFactory.createDefaultModel());
+				RDFParser.create().source(new StringReader(rdf)).lang(Lang.RDFXML).parse(record);
+				return record;
 			}
-			if (p.equals(academicDegree) && o.isURIResource()) {
-				// See https://github.com/hbz/lobid-gnd/commit/2cb4b9b
-				replaceObjectLiteral(model, statement, o.toString(), toRemove, toAdd);
-			} else if ((p.equals(dateOfBirth) || p.equals(dateOfDeath)) //
-					&& o.isLiteral() && o.asLiteral().getDatatypeURI() != null) {
-				// See https://github.com/hbz/lobid-gnd/commit/2cb4b9b
-				replaceObjectLiteral(model, statement, o.asLiteral().getString(), toRemove, toAdd);
-			} else if ((p.equals(sameAsOwl)) //
-					&& o.isLiteral() && o.asLiteral().getDatatypeURI() != null) {
-				// See https://github.com/hbz/lobid-gnd/commit/00ca2a6
-				toRemove.add(statement);
-				// owl->schema:sameAs,https://github.com/hbz/lobid-gnd/issues/185
-				toAdd.add(model.createStatement(statement.getSubject(), model.createProperty(sameAsSchema),
-						model.createResource(o.asLiteral().getString())));
-			} else if (p.startsWith(preferredName) || p.startsWith(variantName)) {
-				// See https://github.com/hbz/lobid-gnd/issues/3
-				toRemove.add(statement);
-				String general = p//
-						.replaceAll("preferredNameFor[^\"]+", "preferredName")
-						.replaceAll("variantNameFor[^\"]+", "variantName");
-				RDFNode object = o.asLiteral().getLanguage().isEmpty() ? o
-						: model.createLiteral(o.asLiteral().getValue().toString());
-				toAdd.add(model.createStatement(statement.getSubject(), model.createProperty(general), object));
-			} else if (p.equals(type) && o.toString().startsWith(gnd)) {
-				// https://github.com/hbz/lobid-gnd/issues/1#issuecomment-312597639
-				if (s.equals(AuthorityResource.GND_PREFIX + id)) {
-					toAdd.add(model.createStatement(statement.getSubject(), statement.getPredicate(),
-							model.createResource(config("data.superclass"))));
-				}
-				// See https://github.com/hbz/lobid-gnd/issues/2
-				String newType = secondLevelTypeFor(gnd, o.toString());
-				if (newType != null) {
-					toAdd.add(model.createStatement(statement.getSubject(), statement.getPredicate(),
-							model.createResource(newType)));
+
+			@Override
+			public void triple(Triple triple) {
+				if (!idFound && triple.getSubject().isURI() && triple.getObject().isLiteral()
+						&& triple.getPredicate().getURI().equals(GND_IDENTIFIER)) {
+					id = triple.getObject().getLiteralLexicalForm();
+					idFound = true;
 				}
-			} else if (!toRemove.contains(statement) && !p.startsWith(rdfSyntax) && !contextAsString.contains(p)) {
-					Logger.error("Skipping statement, predicate not found in context: {}", statement);
-					toRemove.add(statement);
+				super.triple(triple);
 			}
-		});
-		toRemove.stream().forEach(e -> model.remove(e));
-		toAdd.stream().forEach(e -> model.add(e));
-		return model;
+		}
+
 	}
 
-	private static List<Statement> collectionDetails(String resourceId, Model model) {
-		Map<String, Object> collections = CONFIG.getObject("collections").unwrapped();
-		for (String key : collections.keySet()) {
-			if (resourceId.startsWith(key)) {
-				@SuppressWarnings("unchecked")
-				List<String> details = (List<String>) collections.get(key);
-				List<String> properties = CONFIG.getStringList("collections.properties");
-				List<Statement> result = IntStream.range(0, properties.size())
-						.mapToObj(i -> model.createStatement(//
-								model.createResource(details.get(0)), //
-								model.createProperty(properties.get(i)), //
-								model.createLiteral(details.get(i + 1))))
-						.collect(Collectors.toList());
-				return result;
+	/**
+	 * Spreads the records from the splitter over a pool of worker threads, each
+	 * with its own {@link ToAuthorityJson}. In ordered mode, converted records are
+	 * passed on in input order, otherwise as soon as they are done. The deprecated
+	 * IDs are collected in a set shared by all workers. Records that fail to
+	 * convert are logged and skipped.
+	 */
+	static class ParallelToAuthorityJson extends ToAuthorityJson {
+
+		private final boolean ordered;
+		private final int maxPending;
+		private final ExecutorService executor;
+		private final ThreadLocal<ToAuthorityJson> worker;
+		private final Deque<Future<Converted>> pending = new ArrayDeque<>();
+		private final Semaphore permits;
+
+		ParallelToAuthorityJson(int threads, boolean ordered) {
+			this(threads, ordered, null);
+		}
+
+		ParallelToAuthorityJson(int threads, boolean ordered, IncrementalConversion incremental) {
+			super(ConcurrentHashMap.newKeySet(), incremental);
+			this.ordered = ordered;
+			this.maxPending = threads * 4;
+			this.permits = new Semaphore(maxPending);
+			this.worker = ThreadLocal.withInitial(() -> new ToAuthorityJson(deprecated, incremental));
+			this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "convert-worker");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		@Override
+		public void literal(String name, String value) {
+			if (ordered) {
+				pending.add(executor.submit(() -> worker.get().convert(name, value)));
+				emitCompleted(maxPending);
+			} else {
+				permits.acquireUninterruptibly();
+				executor.execute(() -> {
+					try {
+						emit(worker.get().convert(name, value));
+					} catch (RuntimeException e) {
+						Logger.error("Could not convert " + name, e);
+					} finally {
+						permits.release();
+					}
+				});
+			}
+		}
+
+		@Override
+		void flush() {
+			if (ordered) {
+				emitCompleted(0);
+			} else {
+				permits.acquireUninterruptibly(maxPending);
+				permits.release(maxPending);
+			}
+		}
+
+		@Override
+		void shutdown() {
+			executor.shutdown();
+		}
+
+		@Override
+		protected void onCloseStream() {
+			flush();
+		}
+
+		// Emit finished records in input order, wait for the oldest if too many are pending
+		private void emitCompleted(int maxRemaining) {
+			while (!pending.isEmpty() && (pending.size() > maxRemaining || pending.peek().isDone())) {
+				try {
+					emit(pending.poll().get());
+				} catch (ExecutionException e) {
+					Logger.error("Could not convert record", e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new MetafactureException(e);
+				}
 			}
 		}
-		Logger.warn("No collection details found for {}", resourceId);
-		return Collections.emptyList();
 
+		@Override
+		synchronized void emit(Converted converted) {
+			super.emit(converted);
+		}
 	}
 
-	private static String secondLevelTypeFor(String gnd, String type) {
-		String key = type.substring(gnd.length());
-		ConfigObject object = CONFIG.getObject("types");
-		return object.containsKey(key) ? gnd + object.get(key).unwrapped().toString() : null;
+	public static String toJsonLd(String id, Model sourceModel, boolean dev, Set<String> deprecated) {
+		JsonNode json = toJson(id, sourceModel, dev, deprecated);
+		return json == null ? null : Json.stringify(withEntityFacts(id, json));
 	}
 
-	private static void replaceObjectLiteral(Model model, Statement statement, String newObjectLiteral,
-			Set<Statement> toRemove, Set<Statement> toAdd) {
-		toRemove.add(statement);
-		toAdd.add(model.createStatement(statement.getSubject(), statement.getPredicate(),
-				model.createLiteral(newObjectLiteral)));
+	/**
+	 * @return The JSON for the given record, without the Entity Facts
+	 *         enrichment, or null if the record could not be converted
+	 */
+	static JsonNode toJson(String id, Model sourceModel, boolean dev, Set<String> deprecated) {
+		String contextUrl = dev ? config("context.dev") : config("context.prod");
+		try {
+			long start = System.nanoTime();
+			Model model = preprocess(sourceModel, id, deprecated);
+			start = ConversionMetrics.time(Stage.PREPROCESS, start);
+			Object jsonLd = conversion.toJsonLd(model);
+			start = ConversionMetrics.time(Stage.JSONLD, start);
+			JsonNode json = postprocess(contextUrl, jsonLd);
+			ConversionMetrics.time(Stage.POSTPROCESS, start);
+			return json;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	static Model preprocess(Model model, String id, Set<String> deprecated) {
+		return rules.apply(model, id, deprecated);
 	}
 
 	private static Map<String, Object> load() {
@@ -281,45 +346,84 @@ public class Convert {
 		}
 	}
 
-	private static String postprocess(String id, String contextUrl, Object jsonLd) {
-		JsonNode in = Json.toJson(jsonLd);
-		JsonNode graph = in.get("@graph");
-		JsonNode first = graph == null ? in : graph.elements().next();
-		JsonNode result = in;
-		if (first.isObject()) {
-			@SuppressWarnings("unchecked") /* first.isObject() */
-			Map<String, Object> res = Json.fromJson(first, TreeMap.class);
-			res.put("@context", contextUrl);
-			if (in.has("professionOrOccupation")) {
-				res.put("professionOrOccupation", stream(in.get("professionOrOccupation"))
-						.flatMap(node -> stream(node).filter(JsonNode::isObject)).collect(Collectors.toList()));
-			}
-			result = Json.toJson(res);
+	/*
+	 * The JSON tree for the record is created once, from the compacted JSON-LD
+	 * with its top-level keys sorted and the context object replaced by the
+	 * context URL, so the context object is not converted for every record.
+	 */
+	@SuppressWarnings("unchecked")
+	static JsonNode postprocess(String contextUrl, Object jsonLd) {
+		Object graph = jsonLd instanceof Map ? ((Map<String, Object>) jsonLd).get("@graph") : null;
+		Object first = graph instanceof List ? ((List<Object>) graph).get(0) : jsonLd;
+		if (!(first instanceof Map)) {
+			return Json.toJson(jsonLd);
 		}
-		return Json.stringify(withEntityFacts(id, result));
-	}
-
-	private static Stream<JsonNode> stream(JsonNode jsonNode) {
-		Iterable<JsonNode> iterable = () -> jsonNode.elements();
-		return StreamSupport.stream(iterable.spliterator(), false);
+		Map<String, Object> sorted = new TreeMap<>((Map<String, Object>) first);
+		sorted.put("@context", contextUrl);
+		ObjectNode result = Json.mapper().valueToTree(sorted);
+		JsonNode professions = graph == null ? result.get("professionOrOccupation") : null;
+		if (professions != null) {
+			ArrayNode objects = result.arrayNode();
+			professions.elements().forEachRemaining(node -> node.elements().forEachRemaining(element -> {
+				if (element.isObject()) {
+					objects.add(element);
+				}
+			}));
+			result.set("professionOrOccupation", objects);
+		}
+		return result;
 	}
 
 	private static JsonNode withEntityFacts(String id, JsonNode node) {
-		JsonNode result = node;
+		if (ENTITYFACTS_STORE != null) {
+			return withEntityFacts(id, node, ENTITYFACTS_STORE.get(id));
+		}
 		try {
 			String index = config("index.entityfacts.index");
 			String type = config("index.entityfacts.type");
 			Logger.debug("Entity Facts request, index {} type {} id {}", index, type, id);
 			GetResponse response = CLIENT.prepareGet(index, type, id).execute().actionGet();
-			if (response.isExists()) {
-				JsonNode json = Json.parse(response.getSourceAsString());
-				JsonNode depiction = json.get("depiction");
-				JsonNode sameAs = json.get("sameAs");
-				Map<String, Object> map = addIfExists(result, depiction, sameAs);
-				result = Json.toJson(map);
+			return withEntityFacts(id, node, response);
+		} catch (Exception e) {
+			Logger.error("Could not enrich {} from Entity Facts: {} ({})", id, e.getClass(), e.getMessage());
+			return node;
+		}
+	}
+
+	/**
+	 * @param id The GND ID of the record
+	 * @param node The JSON of the converted record
+	 * @param response The response for the record from the Entity Facts index
+	 * @return The JSON enriched with the Entity Facts data, if the index has any
+	 */
+	static JsonNode withEntityFacts(String id, JsonNode node, GetResponse response) {
+		if (!response.isExists()) {
+			Logger.debug("No Entity Facts response {} for {}", response.getSourceAsString(), id);
+			return node;
+		}
+		try {
+			return withEntityFacts(id, node, Json.parse(response.getSourceAsString()));
+		} catch (Exception e) {
+			Logger.error("Could not enrich {} from Entity Facts: {} ({})", id, e.getClass(), e.getMessage());
+			return node;
+		}
+	}
+
+	/**
+	 * @param id The GND ID of the record
+	 * @param node The JSON of the converted record
+	 * @param json The Entity Facts data for the record, or null if there is none
+	 * @return The JSON enriched in place with the Entity Facts data, if there is
+	 *         any
+	 */
+	static JsonNode withEntityFacts(String id, JsonNode node, JsonNode json) {
+		JsonNode result = node;
+		try {
+			if (json != null) {
+				addIfExists((ObjectNode) result, json.get("depiction"), json.get("sameAs"));
 				Logger.debug("Final JSON for {}: {}", id, result);
 			} else {
-				Logger.debug("No Entity Facts response {} for {}", response.getSourceAsString(), id);
+				Logger.debug("No Entity Facts data for {}", id);
 			}
 		} catch (Exception e) {
 			Logger.error("Could not enrich {} from Entity Facts: {} ({})", id, e.getClass(), e.getMessage());
@@ -327,79 +431,77 @@ public class Convert {
 		return result;
 	}
 
-	@SuppressWarnings("unchecked")
-	private static Map<String, Object> addIfExists(JsonNode result, JsonNode depiction, JsonNode sameAs) {
-		Map<String, Object> map = Json.fromJson(result, Map.class);
+	// The record is only changed after all values to add are created, so it
+	// stays unchanged if the Entity Facts data can't be added
+	private static void addIfExists(ObjectNode result, JsonNode depiction, JsonNode sameAs) {
+		List<JsonNode> allSameAs;
 		if (sameAs != null) {
-			List<Map<String, Object>> fromJson = Json.fromJson(sameAs, List.class);
-			List<Map<String, Object>> newSameAs = fromJson.stream().map((Map<String, Object> sameAsMap) -> {
-				Map<String, Object> collection = (Map<String, Object>) sameAsMap.get("collection");
-				collection.put("id", collectionId(sameAsMap.get("@id").toString()));
-				sameAsMap.put("id", sameAsMap.get("@id"));
-				sameAsMap.remove("@id");
-				return sameAsMap;
-			}).collect(Collectors.toList());
-			if (!map.containsKey("sameAs")) {
-				map.put("sameAs", newSameAs);
+			List<JsonNode> newSameAs = new ArrayList<>();
+			for (JsonNode node : elements(sameAs)) {
+				ObjectNode sameAsNode = (ObjectNode) node;
+				((ObjectNode) sameAsNode.get("collection")).put("id",
+						rules.collectionId(sameAsNode.get("@id").asText()));
+				sameAsNode.set("id", sameAsNode.remove("@id"));
+				newSameAs.add(sameAsNode);
+			}
+			if (!result.has("sameAs")) {
+				allSameAs = newSameAs;
 			} else {
-				List<Map<String, Object>> mergedSameAs = new ArrayList<>(newSameAs);
-				mergedSameAs.addAll((List<Map<String, Object>>) map.get("sameAs"));
-				map.put("sameAs", unique(mergedSameAs));
+				Map<String, JsonNode> unique = new HashMap<>();
+				newSameAs.forEach(s -> unique.put(s.get("id").asText(), s));
+				elements(result.get("sameAs")).forEach(s -> unique.put(s.get("id").asText(), s));
+				allSameAs = new ArrayList<>(unique.values());
 			}
+		} else {
+			allSameAs = elements(result.get("sameAs"));
 		}
+		allSameAs.sort(Comparator.comparing(s -> s.get("id").asText()));
+		ObjectNode depictionNode = null;
 		if (depiction != null) {
-			map.put("depiction", Arrays.asList(new ImmutableMap.Builder<>()
-					.put("id", depiction.get("@id"))
-					.put("url", depiction.get("url"))
-					.put("thumbnail", depiction.get("thumbnail").get("@id"))
-					.put("publisher", depiction.get("publisher"))
-					.put("creatorName", depiction.get("creator"))
-					.put("creditText", depiction.get("creditText"))
-					.put("copyrighted", depiction.get("copyrighted").textValue().equals("true"))
-					.put("license", stream(depiction, "license").map(license -> ImmutableMap.of(
-							"id", license.get("@id"),
-							"attributionRequired", license.get("attributionRequired").textValue().equals("true"),
-							"name", license.get("name"),
-							"abbr", license.get("abbr")))).build()));
+			depictionNode = Json.newObject();
+			set(depictionNode, "id", depiction.get("@id"));
+			set(depictionNode, "url", depiction.get("url"));
+			set(depictionNode, "thumbnail", depiction.get("thumbnail").get("@id"));
+			set(depictionNode, "publisher", depiction.get("publisher"));
+			set(depictionNode, "creatorName", depiction.get("creator"));
+			set(depictionNode, "creditText", depiction.get("creditText"));
+			depictionNode.put("copyrighted", depiction.get("copyrighted").textValue().equals("true"));
+			ArrayNode licenses = depictionNode.putArray("license");
+			for (JsonNode license : iterable(depiction.get("license"))) {
+				ObjectNode licenseNode = Json.newObject();
+				set(licenseNode, "id", license.get("@id"));
+				licenseNode.put("attributionRequired", license.get("attributionRequired").textValue().equals("true"));
+				set(licenseNode, "name", license.get("name"));
+				set(licenseNode, "abbr", license.get("abbr"));
+				licenses.add(licenseNode);
+			}
 		} else {
 			Logger.debug("No Entity Facts depiction for {}", result);
 		}
-		map.put("sameAs", sorted((List<Map<String, Object>>) map.get("sameAs")));
-		return map;
-	}
-
-	private static Stream<JsonNode> stream(JsonNode depiction, String field) {
-		return StreamSupport.stream(
-				Spliterators.spliteratorUnknownSize(depiction.get(field).elements(), Spliterator.ORDERED), false);
+		result.putArray("sameAs").addAll(allSameAs);
+		if (depictionNode != null) {
+			result.putArray("depiction").add(depictionNode);
+		}
 	}
 
-	private static List<Map<String, Object>> unique(List<Map<String, Object>> sameAs) {
-		Map<String, Map<String, Object>> unique = new HashMap<>();
-		sameAs.forEach(s -> unique.put(s.get("id").toString(), s));
-		return new ArrayList<>(unique.values());
+	private static void set(ObjectNode node, String field, JsonNode value) {
+		if (value == null) {
+			throw new NullPointerException("null value in entry: " + field + "=null");
+		}
+		node.set(field, value);
 	}
 
-	private static List<Map<String, Object>> sorted(List<Map<String, Object>> result) {
-		Collections.sort(result, new Comparator<Map<String, Object>>() {
-			@Override
-			public int compare(Map<String, Object> o1, Map<String, Object> o2) {
-				return o1.get("id").toString().compareTo(o2.get("id").toString());
-			}
-		});
+	private static List<JsonNode> elements(JsonNode array) {
+		if (!array.isArray()) {
+			throw new IllegalArgumentException("Expected an array: " + array);
+		}
+		List<JsonNode> result = new ArrayList<>(array.size());
+		array.elements().forEachRemaining(result::add);
 		return result;
 	}
 
-	private static String collectionId(String id) {
-		Map<String, Object> collections = CONFIG.getObject("collections").unwrapped();
-		for (String key : collections.keySet()) {
-			if (id.startsWith(key)) {
-				@SuppressWarnings("unchecked")
-				String collectionId = ((List<String>) collections.get(key)).get(0);
-				return collectionId;
-			}
-		}
-		URI uri = URI.create(id);
-		return uri.getScheme() + "://" + uri.getHost();
+	private static Iterable<JsonNode> iterable(JsonNode node) {
+		return node::elements;
 	}
 
 }
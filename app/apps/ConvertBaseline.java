@@ -4,67 +4,246 @@ package apps;
 
 import static apps.Convert.config;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
 import org.metafacture.elasticsearch.JsonToElasticsearchBulk;
 import org.metafacture.flowcontrol.ObjectExceptionCatcher;
+import org.metafacture.framework.helpers.ForwardingStreamPipe;
 import org.metafacture.io.FileOpener;
-import org.metafacture.io.ObjectWriter;
 import org.metafacture.xml.XmlDecoder;
 import org.metafacture.xml.XmlElementSplitter;
 
+import com.google.common.io.CountingInputStream;
+
+import apps.ConversionMetrics.Stage;
+import apps.Convert.ParallelToAuthorityJson;
 import apps.Convert.ToAuthorityJson;
+import play.Logger;
 
 public class ConvertBaseline {
 
-	public static void main(String[] args) {
+	static final String RESUME = "--resume";
+
+	public static void main(String[] args) throws IOException {
+		boolean resume = Arrays.asList(args).contains(RESUME);
+		args = Arrays.stream(args).filter(arg -> !arg.equals(RESUME)).toArray(String[]::new);
 		if (args.length == 3 || args.length == 0) {
 			File inFile = new File(args.length == 3 ? args[0] : config("data.rdfxml"));
-			List<String> input = inFile.isDirectory()
-					? Arrays.asList(inFile.listFiles()).stream().map(File::getAbsolutePath).collect(Collectors.toList())
-					: Arrays.asList(inFile.getAbsolutePath());
 			File outFile = new File(args.length == 3 ? args[1] : config("data.jsonlines"));
-			XmlElementSplitter splitter = new XmlElementSplitter();
-			splitter.setElementName("Description");
-			splitter.setTopLevelElement("rdf:RDF");
-			ToAuthorityJson encodeJson = new ToAuthorityJson();
-			JsonToElasticsearchBulk bulk = new JsonToElasticsearchBulk("id", config("index.type"),
-					config("index.prod.name"));
 			File deprecatedFile = new File(args.length == 3 ? args[2] : config("index.delete.baseline"));
-			deprecatedFile.delete();
-			for (String file : input) {
-				FileOpener opener = new FileOpener();
+			convert(inFile, outFile, deprecatedFile, null, resume);
+		} else {
+			System.err.println(
+					"Pass either three arguments, the input (file or directory), the output file, and the file to store deprecated IDs,"
+							+ "or none, for input, output, and deprecated locations specified in application.conf. "
+							+ "Pass " + RESUME + " to resume from the last checkpoint.");
+		}
+	}
+
+	/**
+	 * @param inFile The RDF/XML input, a file or a directory of files
+	 * @param outFile The file or directory to write the bulk JSON lines to, or
+	 *            null to only index the records
+	 * @param deprecatedFile The file to write the deprecated IDs to
+	 * @param indexer The indexer to index the converted records with, or null
+	 *            to only write the bulk JSON lines
+	 * @param resume If true, resume from the checkpoint in
+	 *            `data.convert.checkpoint.file` for the output file, or without
+	 *            one, for the index (see {@link Checkpoint#file})
+	 */
+	static void convert(File inFile, File outFile, File deprecatedFile, BulkIndexer indexer, boolean resume)
+			throws IOException {
+		List<String> input = inFile.isDirectory()
+				? Arrays.asList(inFile.listFiles()).stream().map(File::getAbsolutePath).sorted()
+						.collect(Collectors.toList())
+				: Arrays.asList(inFile.getAbsolutePath());
+		XmlElementSplitter splitter = new XmlElementSplitter();
+		splitter.setElementName("Description");
+		splitter.setTopLevelElement("rdf:RDF");
+		String manifest = config("data.convert.manifest");
+		if (!manifest.isEmpty() && outFile == null) {
+			throw new IllegalArgumentException("Incremental conversion needs the bulk JSON lines output");
+		}
+		if (!manifest.isEmpty() && resume) {
+			throw new IllegalArgumentException("Incremental conversion can't be resumed, run it again instead");
+		}
+		IncrementalConversion incremental = manifest.isEmpty() ? null
+				: new IncrementalConversion(Paths.get(manifest));
+		String target = outFile != null ? outFile.getAbsolutePath() : indexer.index();
+		Path checkpointFile = Checkpoint.file(config("data.convert.checkpoint.file"), target);
+		Checkpoint checkpoint = resume ? Checkpoint.read(checkpointFile, target) : null;
+		if (checkpoint != null && !input.contains(checkpoint.input)) {
+			Logger.warn("Checkpoint input {} is not in {}, starting from the beginning", checkpoint.input, inFile);
+			checkpoint = null;
+		}
+		int threads = Convert.CONFIG.getInt("data.convert.threads");
+		ToAuthorityJson encodeJson = threads > 1
+				? new ParallelToAuthorityJson(threads, Convert.CONFIG.getBoolean("data.convert.ordered"),
+						incremental)
+				: new ToAuthorityJson(new HashSet<>(), incremental);
+		if (checkpoint != null) {
+			encodeJson.deprecated.addAll(checkpoint.deprecated);
+		}
+		EntityFactsEnrichment enrichment = new EntityFactsEnrichment();
+		JsonToElasticsearchBulk bulk = new JsonToElasticsearchBulk("id", config("index.type"),
+				config("index.prod.name"));
+		deprecatedFile.delete();
+		long totalBytes = 0;
+		for (String file : input) {
+			totalBytes += checkpoint != null && checkpoint.isDone(file) ? 0 : new File(file).length();
+		}
+		AtomicLong bytesDone = new AtomicLong();
+		AtomicReference<CountingInputStream> reading = new AtomicReference<>();
+		ConversionMetrics.METRICS.reset();
+		Closeable progress = ConversionMetrics.METRICS.logProgress(
+				Convert.CONFIG.getLong("data.convert.progress"), totalBytes, () -> {
+					CountingInputStream in = reading.get();
+					return bytesDone.get() + (in == null ? 0 : in.getCount());
+				});
+		for (String file : input) {
+			if (checkpoint != null && checkpoint.isDone(file)) {
+				Logger.info("Skipping {}, done before checkpoint", file);
+				continue;
+			}
+			boolean resumeFile = checkpoint != null && checkpoint.input.equals(file);
+			FileOpener opener = new FileOpener();
+			final ObjectExceptionCatcher<Reader> exceptionCatcher = new ObjectExceptionCatcher<Reader>();
+			exceptionCatcher.setLogStackTrace(true);
+			BulkFileWriter writer = null;
+			if (outFile != null) {
 				File out = outFile.isDirectory() ? new File(outFile, new File(file).getName() + ".jsonl") : outFile;
-				final ObjectWriter<String> writer = new ObjectWriter<>(out.getAbsolutePath());
-				final ObjectExceptionCatcher<Reader> exceptionCatcher = new ObjectExceptionCatcher<Reader>();
-				exceptionCatcher.setLogStackTrace(true);
-				opener//
-						.setReceiver(exceptionCatcher)//
-						.setReceiver(new XmlDecoder())//
-						.setReceiver(splitter)//
-						.setReceiver(encodeJson)//
-						.setReceiver(bulk)//
-						.setReceiver(writer);
-				opener.process(file);
-				opener.closeStream();
+				writer = incremental != null ? incremental.writer(out)
+						: new BulkFileWriter(out.toPath(), resumeFile ? checkpoint.length : 0);
+			}
+			BulkFileWriter output = writer;
+			Checkpoints checkpoints = new Checkpoints(resumeFile ? checkpoint.records : 0,
+					incremental == null ? Convert.CONFIG.getLong("data.convert.checkpoint.records") : 0, records -> {
+						encodeJson.flush();
+						enrichment.flush();
+						if (indexer != null) {
+							indexer.flush();
+						}
+						if (output != null) {
+							output.flush();
+						}
+						try {
+							new Checkpoint(target, file, records, output == null ? 0 : output.position(),
+									encodeJson.deprecated).write(checkpointFile);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+			opener//
+					.setReceiver(exceptionCatcher)//
+					.setReceiver(new XmlDecoder())//
+					.setReceiver(splitter)//
+					.setReceiver(checkpoints)//
+					.setReceiver(encodeJson)//
+					.setReceiver(enrichment);
+			if (indexer != null) {
+				enrichment.setReceiver(indexer);
+			}
+			if (writer != null) {
+				(indexer != null ? indexer.setReceiver(bulk) : enrichment.setReceiver(bulk)).setReceiver(writer);
+			}
+			// open the file like opener.process(file), counting the bytes read for the progress
+			try (CountingInputStream in = new CountingInputStream(new FileInputStream(file))) {
+				reading.set(in);
+				exceptionCatcher.process(opener.open(in));
+			}
+			encodeJson.flush();
+			enrichment.flush();
+			if (indexer != null) {
+				indexer.flush();
+			}
+			opener.closeStream();
+			if (writer != null) {
 				writer.closeStream();
 			}
-			try (PrintWriter pw = new PrintWriter(new FileOutputStream(deprecatedFile, true))) {
-				encodeJson.deprecated.forEach(id -> pw.println(id));
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
+			bytesDone.addAndGet(reading.getAndSet(null).getCount());
+		}
+		encodeJson.shutdown();
+		progress.close();
+		if (incremental != null) {
+			incremental.finish(Paths.get(config("data.convert.removed")));
+		}
+		try (PrintWriter pw = new PrintWriter(new FileOutputStream(deprecatedFile, true))) {
+			encodeJson.deprecated.forEach(id -> pw.println(id));
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		}
+		Files.deleteIfExists(checkpointFile);
+		String report = config("data.convert.report");
+		ConversionMetrics.METRICS.writeReport(report.isEmpty() ? null : Paths.get(report), totalBytes);
+	}
+
+	/**
+	 * Counts the records from the splitter, skips the records done before a
+	 * checkpoint, and writes a new checkpoint every `interval` records. Times the
+	 * splitting, i.e. everything upstream, from one record to the next.
+	 */
+	static class Checkpoints extends ForwardingStreamPipe {
+
+		private final long skip;
+		private final long interval;
+		private final LongConsumer checkpoint;
+		private long records;
+		private long upstream = System.nanoTime();
+
+		/**
+		 * @param skip The number of records to skip
+		 * @param interval The number of records between checkpoints, 0 for none
+		 * @param checkpoint Writes a checkpoint after the given number of records
+		 */
+		Checkpoints(long skip, long interval, LongConsumer checkpoint) {
+			this.skip = skip;
+			this.interval = interval;
+			this.checkpoint = checkpoint;
+		}
+
+		@Override
+		public void startRecord(String identifier) {
+			ConversionMetrics.time(Stage.SPLIT, upstream);
+			records++;
+			if (records > skip) {
+				super.startRecord(identifier);
 			}
-		} else {
-			System.err.println(
-					"Pass either three arguments, the input (file or directory), the output file, and the file to store deprecated IDs,"
-							+ "or none, for input, output, and deprecated locations specified in application.conf");
+		}
+
+		@Override
+		public void literal(String name, String value) {
+			if (records > skip) {
+				super.literal(name, value);
+			}
+		}
+
+		@Override
+		public void endRecord() {
+			if (records > skip) {
+				super.endRecord();
+				if (interval > 0 && records % interval == 0) {
+					checkpoint.accept(records);
+				}
+			}
+			upstream = System.nanoTime();
 		}
 	}
 }
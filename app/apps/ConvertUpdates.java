@@ -4,41 +4,33 @@ package apps;
 
 import static apps.Convert.config;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
-import java.util.Iterator;
-
-import javax.xml.namespace.QName;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.stream.FactoryConfigurationError;
-import javax.xml.stream.XMLEventFactory;
-import javax.xml.stream.XMLEventReader;
-import javax.xml.stream.XMLEventWriter;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLOutputFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.EndElement;
-import javax.xml.stream.events.Namespace;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
-import javax.xml.transform.TransformerException;
-import javax.xml.xpath.XPathException;
 
 import org.apache.commons.lang3.tuple.Pair;
-import org.oclc.oai.harvester2.app.RawWrite;
-import org.xml.sax.SAXException;
 
 /**
  * Configurable to-the-minute. Start time is read from file which was saved last time of successfully updating.
@@ -49,10 +41,8 @@ import org.xml.sax.SAXException;
  */
 public class ConvertUpdates {
 
-	static private final short MAX_TRIES = 1;
-	static private final int WAIT_PER_RETRY = 14400000; // ms => 4h
 	static private final int DAY_IN_MINUTES = 1440;
-	static private final String FAIL_MESSAGE = "Tried to get the update the defined amount of times, but the data remains to be empty."
+	static private final String FAIL_MESSAGE = "The converted updates are empty. "
 			+ "This may or may not be a problem on the side of the data provider.";
 	static private boolean rawDates = false;
 	/* OAI-PMH expects this format */
@@ -64,44 +54,89 @@ public class ConvertUpdates {
 			if (args.length == 3) {
 				rawDates = args[2].equals("--raw-dates");
 			}
-			Pair<ZonedDateTime, ZonedDateTime> startAndEnd = getUpdatesAndConvert(ZonedDateTime.parse(args[0]), endOfUpdates);
-			File dataUpdate = new File(config("data.updates.data"));
-			short tried = 1;
-			while (dataUpdate.length() == 0 ) {
-				System.err.println("Tried " + tried + " times to get the data, but it's empty.");
-				if (MAX_TRIES >= tried) {
-					System.err.println(FAIL_MESSAGE);
-					break;
-				}
-				System.err.println("Going to retry in " + WAIT_PER_RETRY / 1000 / 60 + " min");
-				Thread.sleep(WAIT_PER_RETRY);
-				startAndEnd = getUpdatesAndConvert(startAndEnd.getLeft(), endOfUpdates);
-				tried++;
-			}
-			if (dataUpdate.length() == 0) {
-				System.err.println("Tried " + tried
-						+ " times to get the data, but it remains empty. This may or may not be a problem on the side of the data provider. Going to send a mail...");
+			ZonedDateTime startOfUpdates = ZonedDateTime.parse(args[0]);
+			ZonedDateTime end = getUpdatesAndConvertOnce(startOfUpdates, endOfUpdates);
+			// cron.sh indexes the updates in separate steps, see UpdateDaemon for advancing only after indexing
+			writeLastSuccessfulUpdate(startOfUpdates, end);
+			if (!hasUpdates()) {
+				System.err.println(FAIL_MESSAGE);
 				// see https://github.com/hbz/lobid-gnd/issues/350
 				// Email.sendEmail(config("mail.sender"), config("mail.recipient"), "GND updates fails :(", FAIL_MESSAGE);
-			} else {
-				System.err.println("Success getting the update, tried " + tried + " times");
-				writeLastSuccessfulUpdate(startAndEnd.getRight());
 			}
-			backup(dataUpdate, startAndEnd.getLeft(), startAndEnd.getRight());
 		} else {
 			System.err.println(
 					"Argument missing to get updates since (and optionally until) a given date in ISO format, e.g. 2019-06-13");
 		}
 	}
 
+	/**
+	 * Get and convert the updates since the given time until now, once, without waiting and retrying if there are
+	 * none, as the {@link UpdateDaemon} tries again at its next run anyway.
+	 *
+	 * @param startOfUpdates a CET time defining the beginning of the timeframe
+	 * @return The CET time until which the updates are complete
+	 */
+	static ZonedDateTime getUpdatesAndConvertOnce(final ZonedDateTime startOfUpdates) throws IOException {
+		return getUpdatesAndConvertOnce(startOfUpdates, null);
+	}
+
+	/**
+	 * Get and convert the updates of the given timeframe once, and back up the harvested and converted data. The
+	 * returned time is not written to `data.updates.last` here, so callers can advance it only once the updates are
+	 * indexed, see {@link #writeLastSuccessfulUpdate(ZonedDateTime, ZonedDateTime)}.
+	 *
+	 * @param startOfUpdates a CET time defining the beginning of the timeframe
+	 * @param endOfUpdates a CET time defining the end of the timeframe, or null for now
+	 * @return The CET time until which the updates are complete
+	 */
+	static ZonedDateTime getUpdatesAndConvertOnce(final ZonedDateTime startOfUpdates, final ZonedDateTime endOfUpdates)
+			throws IOException {
+		Pair<ZonedDateTime, ZonedDateTime> startAndEnd = getUpdatesAndConvert(startOfUpdates, endOfUpdates);
+		backup(new File(config("data.updates.data")), startAndEnd.getLeft(), startAndEnd.getRight());
+		backup(new File(config("index.delete.updates")), startAndEnd.getLeft(), startAndEnd.getRight());
+		return startAndEnd.getRight();
+	}
+
+	/**
+	 * @return true if there were updates, i.e. the converted data is not empty
+	 */
+	static boolean hasUpdates() {
+		return new File(config("data.updates.data")).length() > 0;
+	}
+
 	private static Pair<ZonedDateTime, ZonedDateTime> getUpdatesAndConvert(final ZonedDateTime startOfUpdates, final ZonedDateTime endOfUpdates) throws IOException {
 		Pair<ZonedDateTime, ZonedDateTime> startAndEnd = getUpdates(startOfUpdates, endOfUpdates);
 		backup(new File(config("data.updates.rdf")), startAndEnd.getLeft(), startAndEnd.getRight());
+		if (Convert.CONFIG.getBoolean("data.updates.deduplicate")) {
+			deduplicate(new File(config("data.updates.rdf")));
+		}
 		ConvertBaseline.main(new String[] { config("data.updates.rdf"), config("data.updates.data"),
 				config("index.delete.updates") });
 		return startAndEnd;
 	}
 	
+	// Keep only the most recent version of each record, before converting (the backup keeps all versions)
+	private static void deduplicate(final File updates) throws IOException {
+		File deduplicated = new File(updates.getPath() + ".deduplicated");
+		UpdateDeduplication deduplication = new UpdateDeduplication();
+		try {
+			deduplication.deduplicate(updates, deduplicated);
+		} catch (XMLStreamException e) {
+			System.err.println("Could not deduplicate updates, converting all of them: " + e.getMessage());
+			deduplicated.delete();
+			return;
+		}
+		Files.move(deduplicated.toPath(), updates.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		System.out.println("Deduplicated updates: " + deduplication);
+		ConversionMetrics.count("updates", deduplication.records);
+		ConversionMetrics.count("updatesDuplicate", deduplication.duplicates);
+		ConversionMetrics.count("updatesDeprecated", deduplication.deprecated);
+	}
+
+	/**
+	 * @return the start of the updates and the end of the last window that was harvested, with all windows before it,
+	 *         i.e. the time until which the updates are complete
+	 */
 	private static Pair<ZonedDateTime, ZonedDateTime> getUpdates(final ZonedDateTime startOfUpdates, final ZonedDateTime endOfUpdates) {
 		final int intervalInDaysSize = Convert.CONFIG.getInt("data.updates.interval");
 		ZonedDateTime start = startOfUpdates;
@@ -119,6 +154,7 @@ public class ConvertUpdates {
 		String dataUpdateUrl = config("data.updates.url");
 		System.out.printf("Trying to get data using %s from %s CET until %s CET using a %s days interval , i.e. doing %s lookup(s)\n",
 				dataUpdateUrl, start.format(dateTimeFormatter), givenEndOrNow.format(dateTimeFormatter), intervalInDaysSize, intervalInDays);
+		List<Pair<ZonedDateTime, ZonedDateTime>> windows = new ArrayList<>();
 		for (int i = 0; i < intervalInDays; i++) {
 			if (i == intervalInDays - 1)
 				end = ZonedDateTime.from(givenEndOrNow);
@@ -126,13 +162,22 @@ public class ConvertUpdates {
 				end = rawDates ? end
 						: ZonedDateTime.from(addMinutes(start, givenEndOrNow,
 						(intervalInDaysSize) * DAY_IN_MINUTES /* 'until' is inclusive */));
-			try {
-				process(dataUpdateUrl, start, end, file);
-			} catch (Throwable t) {
-				t.printStackTrace();
-			}
+			windows.add(Pair.of(start, end));
 			start = ZonedDateTime.from(end);
 		}
+		List<Pair<ZonedDateTime, ZonedDateTime>> failed = windows;
+		try {
+			failed = harvestWindows(dataUpdateUrl, windows, file, Convert.CONFIG.getInt("data.updates.concurrent"),
+					Convert.CONFIG.getInt("data.updates.tries"),
+					Convert.CONFIG.getLong("data.updates.retryWait") * 1000);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		}
+		end = completeUntil(startOfUpdates, windows, failed);
+		if (!failed.isEmpty()) {
+			System.err.printf("Could not get %s of %s windows, updates are complete until %s CET\n", failed.size(),
+					windows.size(), end.format(dateTimeFormatter));
+		}
 		try (FileWriter writer = new FileWriter(file, true)) {
 			writer.write("</RDF>");
 		} catch (IOException e) {
@@ -141,9 +186,103 @@ public class ConvertUpdates {
 		return Pair.of(startOfUpdates, end);
 	}
 
+	/**
+	 * @param start the start of the first window
+	 * @param windows the windows, in chronological order
+	 * @param failed the windows that could not be harvested
+	 * @return the end of the last window before the first failed one, or the start if the first window failed
+	 */
+	static ZonedDateTime completeUntil(final ZonedDateTime start, final List<Pair<ZonedDateTime, ZonedDateTime>> windows,
+			final List<Pair<ZonedDateTime, ZonedDateTime>> failed) {
+		ZonedDateTime end = start;
+		for (Pair<ZonedDateTime, ZonedDateTime> window : windows) {
+			if (failed.contains(window)) {
+				break;
+			}
+			end = window.getRight();
+		}
+		return end;
+	}
+
+	/**
+	 * Harvest the given windows, with up to `concurrent` windows at the same time, each into its own temporary file.
+	 * The window files are appended to the result in chronological order, so the last update of a record still comes
+	 * last. A window that fails is retried on its own, up to `tries` times in total, waiting twice as long before each
+	 * retry. The windows that were harvested are kept, even if other windows fail.
+	 *
+	 * @param baseUrl the basis URL of the OAI-PMH server
+	 * @param windows the CET start and end times of the windows, in chronological order
+	 * @param result the file to append the data to
+	 * @param concurrent the number of windows to harvest at the same time
+	 * @param tries the number of times to try each window
+	 * @param retryWait the time to wait before the first retry of a window, in milliseconds
+	 * @return the windows that could not be harvested
+	 */
+	static List<Pair<ZonedDateTime, ZonedDateTime>> harvestWindows(final String baseUrl,
+			final List<Pair<ZonedDateTime, ZonedDateTime>> windows, final File result, final int concurrent,
+			final int tries, final long retryWait) throws IOException, InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrent), runnable -> {
+			Thread thread = new Thread(runnable, "harvest-window");
+			thread.setDaemon(true);
+			return thread;
+		});
+		List<Future<File>> harvested = new ArrayList<>();
+		for (int i = 0; i < windows.size(); i++) {
+			Pair<ZonedDateTime, ZonedDateTime> window = windows.get(i);
+			File windowFile = new File(result.getPath() + "." + i);
+			harvested.add(executor.submit(() -> harvestWindow(baseUrl, window, windowFile, tries, retryWait)));
+		}
+		executor.shutdown();
+		List<Pair<ZonedDateTime, ZonedDateTime>> failed = new ArrayList<>();
+		try (OutputStream out = new FileOutputStream(result, true)) {
+			for (int i = 0; i < windows.size(); i++) {
+				File windowFile;
+				try {
+					windowFile = harvested.get(i).get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					windowFile = null;
+				}
+				if (windowFile == null) {
+					System.err.printf("Could not get updates from %s CET until %s CET\n",
+							windows.get(i).getLeft().format(dateTimeFormatter),
+							windows.get(i).getRight().format(dateTimeFormatter));
+					failed.add(windows.get(i));
+				} else {
+					Files.copy(windowFile.toPath(), out);
+					Files.delete(windowFile.toPath());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return failed;
+	}
+
+	// Returns the file with the data of the window, or null if all tries failed
+	private static File harvestWindow(final String baseUrl, final Pair<ZonedDateTime, ZonedDateTime> window,
+			final File windowFile, final int tries, final long retryWait) throws InterruptedException {
+		for (int tried = 1; tried <= tries; tried++) {
+			try {
+				Files.deleteIfExists(windowFile.toPath());
+				process(baseUrl, window.getLeft(), window.getRight(), windowFile);
+				return windowFile;
+			} catch (Exception e) {
+				System.err.printf("Try %s of %s to get updates from %s CET until %s CET failed: %s\n", tried, tries,
+						window.getLeft().format(dateTimeFormatter), window.getRight().format(dateTimeFormatter), e);
+				if (tried < tries) {
+					Thread.sleep(OaiPmhHarvester.backoff(retryWait, tried));
+				}
+			}
+		}
+		windowFile.delete();
+		return null;
+	}
+
 	/**
 	 * As we call from a CET timed server and OAI-PMH expects UTC time the given parameter "from" and parameter "until"
-	 * are changed to UTC time.
+	 * are changed to UTC time. The records are harvested page by page and streamed into the result file, see
+	 * {@link OaiPmhHarvester}.
 	 *
 	 * @param baseUrl the basis URL of the OAI-PMH server
 	 * @param from a CET time defining the beginning of the timeframe
@@ -151,16 +290,19 @@ public class ConvertUpdates {
 	 * @param result the file to where the data is written
 	 */
 	public static void process(final String baseUrl, final ZonedDateTime from, final ZonedDateTime until, File result)
-			throws NoSuchFieldException, IOException, ParserConfigurationException, SAXException, TransformerException,
-			XMLStreamException, XPathException {
+			throws IOException, XMLStreamException {
 
 		String fromUtcFormatted = getUtcFromCet(from).minusMinutes(1).format(dateTimeFormatter);
 		String untilUtcFormatted = getUtcFromCet(until).format(dateTimeFormatter);
 
 		System.out.printf("Calling OAI-PMH at %s from %s UTC until %s UTC\n", baseUrl, fromUtcFormatted, untilUtcFormatted);
-		ByteArrayOutputStream stream = new ByteArrayOutputStream();
-		RawWrite.run(baseUrl, fromUtcFormatted, untilUtcFormatted, "RDFxml", "authorities", stream);
-		writeRdfDescriptions(result, stream);
+		try (Writer writer = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(result, true), StandardCharsets.UTF_8))) {
+			new OaiPmhHarvester(baseUrl, "RDFxml", "authorities", Convert.CONFIG.getInt("data.updates.page.tries"),
+					Convert.CONFIG.getLong("data.updates.page.retryWait") * 1000,
+					Convert.CONFIG.getInt("data.updates.page.timeout") * 1000).harvest(fromUtcFormatted,
+							untilUtcFormatted, writer);
+		}
 	}
 
 	private static ZonedDateTime getUtcFromCet(final ZonedDateTime cetTime) {
@@ -169,52 +311,14 @@ public class ConvertUpdates {
 		return utcTimeZoned;
 	}
 
-	static void writeRdfDescriptions(File result, ByteArrayOutputStream stream)
-			throws FactoryConfigurationError, XMLStreamException, IOException {
-		try (FileWriter fileWriter = new FileWriter(result, true)) {
-			String rdfTag = "RDF";
-			String entityTag = "Description";
-			XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
-			XMLEventFactory eventFactory = XMLEventFactory.newInstance();
-			XMLEventWriter eventWriter = null;
-			InputStreamReader inputStreamReader = new InputStreamReader(new ByteArrayInputStream(stream.toByteArray()),
-					StandardCharsets.UTF_8);
-			XMLEventReader eventReader = XMLInputFactory.newInstance().createXMLEventReader(inputStreamReader);
-			Iterator<?> namespaces = null;
-			while (eventReader.hasNext()) {
-				try {
-					XMLEvent nextEvent = eventReader.nextEvent();
-					if (nextEvent.isStartElement()) {
-						StartElement startElement = nextEvent.asStartElement();
-						if (startElement.getName().getLocalPart().equals(rdfTag)) {
-							namespaces = startElement.getNamespaces();
-							eventWriter = outputFactory.createXMLEventWriter(fileWriter);
-							continue;
-						} else if (startElement.getName().getLocalPart().equals(entityTag)) {
-							QName descriptionName = new QName(startElement.getName().getNamespaceURI(),
-									startElement.getName().getLocalPart(), startElement.getName().getPrefix());
-							StartElement descriptionWithNamespaces = eventFactory.createStartElement(descriptionName,
-									 startElement.getAttributes(), (Iterator<? extends Namespace>) namespaces);
-							nextEvent = descriptionWithNamespaces;
-						}
-					} else if (nextEvent.isEndElement()
-							&& ((EndElement) nextEvent).getName().getLocalPart().equals(rdfTag)) {
-						eventWriter.close();
-						eventWriter = null;
-					}
-					if (eventWriter != null) {
-						eventWriter.add(nextEvent);
-					}
-				} catch (XMLStreamException e) {
-					System.err.printf("XMLStreamException, skipping XMLEvent. \n");
-					e.printStackTrace();
-					eventReader.next();
-				}
-			}
+	/**
+	 * Write the time until which the updates are complete to `data.updates.last`, if it is after the start of the
+	 * updates, so the next updates are harvested from there.
+	 */
+	static void writeLastSuccessfulUpdate(ZonedDateTime startOfUpdates, ZonedDateTime until) {
+		if (!until.isAfter(startOfUpdates)) {
+			return;
 		}
-	}
-
-	private static void writeLastSuccessfulUpdate(ZonedDateTime until) {
 		File file = new File(config("data.updates.last"));
 		file.delete();
 		try (FileWriter writer = new FileWriter(file)) {
@@ -224,12 +328,12 @@ public class ConvertUpdates {
 		}
 	}
 
+	// Gzipped, and stored only once for the same content, see BackupStore
 	private static void backup(File source, ZonedDateTime start, ZonedDateTime end) throws IOException {
-		String name = source.getName();
-		File target = new File(new File(config("data.backup")), String.format("%s_%s_%s%s",
-				name.substring(0, name.lastIndexOf('.')), start.format(dateTimeFormatter),
-				end.format(dateTimeFormatter), name.substring(name.lastIndexOf('.'))));
-		Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		if (source.exists()) {
+			new BackupStore(Paths.get(config("data.backup"))).store(source.toPath(), start.format(dateTimeFormatter),
+					end.format(dateTimeFormatter));
+		}
 	}
 
 	private static ZonedDateTime addMinutes(ZonedDateTime start, ZonedDateTime end, int intervalSize) {
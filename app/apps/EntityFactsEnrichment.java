@@ -0,0 +1,188 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import static apps.Convert.config;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.client.Client;
+import org.metafacture.framework.ObjectReceiver;
+import org.metafacture.framework.helpers.DefaultObjectPipe;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import apps.Convert.Converted;
+import apps.ConversionMetrics.Stage;
+import play.Logger;
+import play.libs.Json;
+
+/**
+ * Enriches converted records with data from the Entity Facts index (see
+ * {@link Convert#withEntityFacts}), using one multi-get request for a batch of
+ * records instead of one request per record. Multiple requests can be in
+ * flight while records are still being converted. The enriched records are
+ * passed on in the order they were received. If a local
+ * {@link EntityFactsStore} is configured, it is used instead of the index.
+ * Reused output of unchanged records (see {@link IncrementalConversion}) is
+ * passed on as it is.
+ */
+class EntityFactsEnrichment extends DefaultObjectPipe<Converted, ObjectReceiver<String>> {
+
+	private final Client client;
+	private final EntityFactsStore store;
+	private final String index = config("index.entityfacts.index");
+	private final String type = config("index.entityfacts.type");
+	private final int batchSize;
+	private final int maxInFlight;
+	private final Deque<Batch> inFlight = new ArrayDeque<>();
+	private List<Converted> batch = new ArrayList<>();
+
+	EntityFactsEnrichment() {
+		this(Convert.CLIENT, Convert.ENTITYFACTS_STORE, Convert.CONFIG.getInt("index.entityfacts.batch"),
+				Convert.CONFIG.getInt("index.entityfacts.concurrent"));
+	}
+
+	/**
+	 * @param client The client for the Entity Facts index
+	 * @param store The local Entity Facts store to use instead of the index, or
+	 *            null
+	 * @param batchSize The number of records to look up in one request
+	 * @param maxInFlight The number of requests to run at the same time
+	 */
+	EntityFactsEnrichment(Client client, EntityFactsStore store, int batchSize, int maxInFlight) {
+		this.client = client;
+		this.store = store;
+		this.batchSize = Math.max(1, batchSize);
+		this.maxInFlight = Math.max(1, maxInFlight);
+	}
+
+	@Override
+	public void process(Converted converted) {
+		if (store != null) {
+			pass(converted.output != null ? converted.output : Json.stringify(enrichLocally(converted)));
+			return;
+		}
+		batch.add(converted);
+		if (batch.size() == batchSize) {
+			send();
+			emitCompleted(maxInFlight);
+		}
+	}
+
+	/** Pass on all records, waiting for the requests still in flight. */
+	void flush() {
+		if (!batch.isEmpty()) {
+			send();
+		}
+		emitCompleted(0);
+	}
+
+	@Override
+	protected void onCloseStream() {
+		flush();
+	}
+
+	private void send() {
+		Batch sent = new Batch(batch);
+		batch = new ArrayList<>();
+		try {
+			MultiGetRequestBuilder request = client.prepareMultiGet();
+			for (Converted converted : sent.records) {
+				// an empty ID would fail the whole request, these are not enriched;
+				// reused output is already enriched
+				if (converted.output == null && !converted.id.isEmpty()) {
+					request.add(index, type, converted.id);
+				}
+			}
+			Logger.debug("Entity Facts request, index {} type {}, {} records", index, type, sent.records.size());
+			if (!request.request().getItems().isEmpty()) {
+				sent.response = request.execute();
+			}
+		} catch (Exception e) {
+			sent.failure = e;
+		}
+		inFlight.add(sent);
+	}
+
+	// Emit batches in order, wait for the oldest if too many are in flight
+	private void emitCompleted(int maxRemaining) {
+		while (!inFlight.isEmpty() && (inFlight.size() > maxRemaining || inFlight.peek().isDone())) {
+			emit(inFlight.poll());
+		}
+	}
+
+	private void emit(Batch completed) {
+		MultiGetItemResponse[] items = null;
+		try {
+			if (completed.response != null) {
+				long start = System.nanoTime();
+				items = completed.response.actionGet().getResponses();
+				ConversionMetrics.time(Stage.ENTITYFACTS, start);
+			}
+		} catch (Exception e) {
+			completed.failure = e;
+		}
+		int item = 0;
+		for (Converted converted : completed.records) {
+			JsonNode result;
+			if (converted.output != null) {
+				pass(converted.output);
+				continue;
+			} else if (converted.id.isEmpty()) {
+				result = notEnriched(converted, new IllegalArgumentException("No ID to request Entity Facts for"));
+			} else if (completed.failure != null) {
+				result = notEnriched(converted, completed.failure);
+			} else {
+				MultiGetItemResponse response = items[item++];
+				result = response.isFailed() ? notEnriched(converted, response.getFailure().getFailure())
+						: Convert.withEntityFacts(converted.id, converted.json, response.getResponse());
+			}
+			pass(Json.stringify(result));
+		}
+	}
+
+	private void pass(String output) {
+		long start = System.nanoTime();
+		getReceiver().process(output);
+		ConversionMetrics.time(Stage.OUTPUT, start);
+		ConversionMetrics.recordDone();
+	}
+
+	private JsonNode enrichLocally(Converted converted) {
+		try {
+			long start = System.nanoTime();
+			JsonNode entityFacts = store.get(converted.id);
+			ConversionMetrics.time(Stage.ENTITYFACTS, start);
+			return Convert.withEntityFacts(converted.id, converted.json, entityFacts);
+		} catch (Exception e) {
+			return notEnriched(converted, e);
+		}
+	}
+
+	private static JsonNode notEnriched(Converted converted, Exception e) {
+		Logger.error("Could not enrich {} from Entity Facts: {} ({})", converted.id, e.getClass(), e.getMessage());
+		return converted.json;
+	}
+
+	private static class Batch {
+		final List<Converted> records;
+		ActionFuture<MultiGetResponse> response;
+		Exception failure;
+
+		Batch(List<Converted> records) {
+			this.records = records;
+		}
+
+		boolean isDone() {
+			return response == null || response.isDone();
+		}
+	}
+}
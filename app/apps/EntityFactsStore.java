@@ -0,0 +1,122 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import static apps.Convert.config;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import models.AuthorityResource;
+import play.Logger;
+import play.libs.Json;
+
+/**
+ * A local store of the Entity Facts data used when converting records (the
+ * `depiction` and `sameAs` for each GND ID), as an alternative to the Entity
+ * Facts index. Built from the Entity Facts dump into a
+ * {@link SortedKeyValueFile}, with the GND IDs as keys and the JSON as values.
+ * Instances can be used from multiple threads.
+ */
+final class EntityFactsStore {
+
+	private final SortedKeyValueFile file;
+
+	/**
+	 * Build the store file `data.entityfactsStore` from the Entity Facts dump
+	 * `data.entityfacts` (see conf/application.conf), or from the files passed.
+	 *
+	 * @param args Either none, or the Entity Facts dump and the store file
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 2 || args.length == 0) {
+			Path dump = Paths.get(args.length == 2 ? args[0] : config("data.entityfacts"));
+			Path store = Paths.get(args.length == 2 ? args[1] : config("data.entityfactsStore"));
+			Logger.info("Building Entity Facts store {} from {}", store, dump);
+			long count = build(dump, store);
+			Logger.info("Stored Entity Facts for {} GND IDs in {}", count, store);
+		} else {
+			System.err.println("Pass either two arguments, the Entity Facts dump and the store file to create, "
+					+ "or none, for the locations specified in application.conf");
+		}
+	}
+
+	/**
+	 * @return The store configured in `data.entityfactsStore`, or null if none
+	 *         is configured
+	 */
+	static EntityFactsStore fromConfig() {
+		String file = config("data.entityfactsStore");
+		if (file.isEmpty()) {
+			return null;
+		}
+		try {
+			return open(Paths.get(file));
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not open Entity Facts store " + file, e);
+		}
+	}
+
+	/**
+	 * @param dump The Entity Facts dump, one JSON-LD record per line
+	 * @param store The store file to create
+	 * @return The number of GND IDs stored
+	 */
+	static long build(Path dump, Path store) throws IOException {
+		int prefixLength = AuthorityResource.GND_PREFIX.length();
+		try (Stream<String> lines = Files.lines(dump);
+				SortedKeyValueFile.Writer writer = new SortedKeyValueFile.Writer(store)) {
+			for (String line : (Iterable<String>) lines::iterator) {
+				String json = line.substring(1);
+				if (!json.isEmpty()) {
+					JsonNode record = Json.parse(json);
+					// like indexing, the last record for an ID replaces the others
+					writer.add(record.get("@id").textValue().substring(prefixLength).getBytes(StandardCharsets.UTF_8),
+							Json.stringify(fields(record)).getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			writer.close();
+			return writer.size();
+		}
+	}
+
+	/**
+	 * @param file The store file, as created by {@link #build(Path, Path)}
+	 * @return The store for looking up the data in the file
+	 */
+	static EntityFactsStore open(Path file) throws IOException {
+		return new EntityFactsStore(SortedKeyValueFile.open(file));
+	}
+
+	private EntityFactsStore(SortedKeyValueFile file) {
+		this.file = file;
+	}
+
+	/**
+	 * @param id The GND ID
+	 * @return The `depiction` and `sameAs` from Entity Facts for the ID (the
+	 *         fields the ID has no data for are missing), or null if there is no
+	 *         Entity Facts record for the ID
+	 */
+	JsonNode get(String id) {
+		byte[] value = file.get(id.getBytes(StandardCharsets.UTF_8));
+		return value == null ? null : Json.parse(value);
+	}
+
+	private static ObjectNode fields(JsonNode record) {
+		ObjectNode result = Json.newObject();
+		for (String field : new String[] { "depiction", "sameAs" }) {
+			if (record.has(field)) {
+				result.set(field, record.get(field));
+			}
+		}
+		return result;
+	}
+}
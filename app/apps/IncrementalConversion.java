@@ -0,0 +1,313 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import apps.Convert.Converted;
+import models.AuthorityResource;
+import play.Logger;
+import play.libs.Json;
+
+/**
+ * Converts only the new and changed records of a baseline, and reuses the
+ * output of the previous conversion for the others. The manifest, a
+ * {@link SortedKeyValueFile}, maps the GND ID of every record written to the
+ * hash of its source record and the position of its JSON in the output. Its
+ * metadata lists the output files with their lengths; if they don't match, the
+ * manifest is not used. The new output is written to temporary files, which
+ * replace the previous output in {@link #finish(Path)}, with the new manifest.
+ * Lookups can be used from multiple threads.
+ */
+final class IncrementalConversion {
+
+	private static final String NODE_ID = "nodeID=\"";
+	private static final int HASH_LENGTH = 16;
+
+	private final Path manifest;
+	private final Path newManifest;
+	private final SortedKeyValueFile previous;
+	private final List<FileChannel> previousOutputs = new ArrayList<>();
+	private final AtomicLongArray seen;
+	// hashes of the records passed on, by ID in the order their output is written
+	private final Map<String, Deque<byte[]>> hashes = new HashMap<>();
+	private final SortedKeyValueFile.Writer entries;
+	private final List<Output> outputs = new ArrayList<>();
+	private final AtomicLong reused = new AtomicLong();
+	private final AtomicLong converted = new AtomicLong();
+
+	/**
+	 * @param manifest The manifest of the previous conversion (if it exists),
+	 *            and the location of the manifest for this conversion
+	 */
+	IncrementalConversion(Path manifest) throws IOException {
+		this.manifest = manifest;
+		this.newManifest = Paths.get(manifest + ".tmp");
+		this.previous = Files.exists(manifest) ? openPrevious(manifest) : null;
+		this.seen = new AtomicLongArray(previous == null ? 0 : (int) ((previous.size() + 63) / 64));
+		this.entries = new SortedKeyValueFile.Writer(newManifest);
+		Logger.info("Incremental conversion with manifest {}, {} previous records", manifest,
+				previous == null ? 0 : previous.size());
+	}
+
+	/**
+	 * @param id The GND ID of the record (see {@link RecordId})
+	 * @param hash The hash of the record, see {@link #hash(String)}
+	 * @param deprecated Collects IDs deprecated by the record
+	 * @return The previous output for the record if the record is unchanged,
+	 *         or null if the record needs to be converted
+	 */
+	Converted reuse(String id, byte[] hash, Set<String> deprecated) {
+		String json = previousOutput(id, hash);
+		if (json == null) {
+			converted.incrementAndGet();
+			return null;
+		}
+		reused.incrementAndGet();
+		if (json.contains("deprecatedUri")) {
+			Json.parse(json).path("deprecatedUri").forEach(uri -> deprecated
+					.add(uri.textValue().substring(AuthorityResource.GND_PREFIX.length())));
+		}
+		return new Converted(id, json, hash);
+	}
+
+	/**
+	 * Keep the hash of a record passed on from the conversion until its output
+	 * is written, for the manifest. Records are written in the order they are
+	 * passed on, so for an ID that occurs more than once, the manifest gets the
+	 * hash and the output of the last record, like the index. Records that fail
+	 * to convert are not passed on, and not added to the manifest.
+	 *
+	 * @param converted The converted or reused record
+	 */
+	synchronized void passedOn(Converted converted) {
+		if (converted.hash != null) {
+			hashes.computeIfAbsent(converted.id, id -> new ArrayDeque<>()).add(converted.hash);
+		}
+	}
+
+	/**
+	 * @param out The output file
+	 * @return A receiver for the bulk index data of the records, which writes
+	 *         the data to a temporary file, and adds the written records to the
+	 *         manifest
+	 */
+	synchronized BulkFileWriter writer(File out) {
+		Path file = out.toPath().toAbsolutePath();
+		if (outputs.stream().anyMatch(output -> output.file.equals(file))) {
+			throw new IllegalArgumentException("Each input needs its own output in incremental conversion: " + file);
+		}
+		Output output = new Output(outputs.size(), file, Paths.get(file + ".tmp"));
+		outputs.add(output);
+		return output;
+	}
+
+	/**
+	 * Replace the previous output and manifest with the new ones, and write the
+	 * IDs of the records in the previous output that are not in the new one.
+	 *
+	 * @param removed The file to write the IDs of the removed records to
+	 */
+	void finish(Path removed) throws IOException {
+		ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(metadata)) {
+			out.writeInt(outputs.size());
+			for (Output output : outputs) {
+				output.closeStream();
+				out.writeUTF(output.file.toString());
+				out.writeLong(output.position());
+			}
+		}
+		entries.metadata(metadata.toByteArray());
+		entries.close();
+		for (FileChannel channel : previousOutputs) {
+			channel.close();
+		}
+		for (Output output : outputs) {
+			Files.move(output.temp, output.file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		Files.move(newManifest, manifest, StandardCopyOption.REPLACE_EXISTING);
+		long removedCount = 0;
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(removed, StandardCharsets.UTF_8))) {
+			for (long entry = 0; previous != null && entry < previous.size(); entry++) {
+				if (!isSeen(entry)) {
+					writer.println(new String(previous.key(entry), StandardCharsets.UTF_8));
+					removedCount++;
+				}
+			}
+		}
+		Logger.info("Incremental conversion: {} records reused, {} converted, {} removed (listed in {})",
+				reused.get(), converted.get(), removedCount, removed);
+	}
+
+	/**
+	 * @param record The RDF/XML of a single record
+	 * @return The hash of the record, with blank node IDs replaced by their
+	 *         number in the record, since they differ between exports
+	 */
+	static byte[] hash(String record) {
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		Map<String, Integer> nodeIds = new HashMap<>();
+		int start = 0;
+		int nodeId;
+		while ((nodeId = record.indexOf(NODE_ID, start)) >= 0) {
+			int valueStart = nodeId + NODE_ID.length();
+			int valueEnd = record.indexOf('"', valueStart);
+			if (valueEnd < 0) {
+				break;
+			}
+			hasher.putUnencodedChars(record.subSequence(start, valueStart));
+			String value = record.substring(valueStart, valueEnd);
+			hasher.putInt(nodeIds.computeIfAbsent(value, v -> nodeIds.size()));
+			start = valueEnd;
+		}
+		hasher.putUnencodedChars(record.subSequence(start, record.length()));
+		return hasher.hash().asBytes();
+	}
+
+	private SortedKeyValueFile openPrevious(Path file) throws IOException {
+		SortedKeyValueFile result = SortedKeyValueFile.open(file);
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(result.metadata()))) {
+			int files = in.readInt();
+			for (int i = 0; i < files; i++) {
+				Path output = Paths.get(in.readUTF());
+				long length = in.readLong();
+				if (!Files.exists(output) || Files.size(output) != length) {
+					Logger.warn("Output {} of manifest {} changed, converting all records", output, file);
+					for (FileChannel channel : previousOutputs) {
+						channel.close();
+					}
+					previousOutputs.clear();
+					return null;
+				}
+				previousOutputs.add(FileChannel.open(output, StandardOpenOption.READ));
+			}
+		}
+		return result;
+	}
+
+	private String previousOutput(String id, byte[] hash) {
+		if (previous == null) {
+			return null;
+		}
+		long entry = previous.find(id.getBytes(StandardCharsets.UTF_8));
+		if (entry < 0) {
+			return null;
+		}
+		markSeen(entry);
+		ByteBuffer value = ByteBuffer.wrap(previous.value(entry));
+		byte[] previousHash = new byte[HASH_LENGTH];
+		value.get(previousHash);
+		if (!Arrays.equals(hash, previousHash)) {
+			return null;
+		}
+		FileChannel output = previousOutputs.get(value.getInt());
+		long offset = value.getLong();
+		ByteBuffer json = ByteBuffer.allocate(value.getInt());
+		try {
+			while (json.hasRemaining()) {
+				if (output.read(json, offset + json.position()) < 0) {
+					throw new IOException("Unexpected end of previous output");
+				}
+			}
+		} catch (IOException e) {
+			Logger.error("Could not read previous output for {}, converting: {}", id, e.getMessage());
+			return null;
+		}
+		return new String(json.array(), StandardCharsets.UTF_8);
+	}
+
+	private void markSeen(long entry) {
+		int word = (int) (entry >>> 6);
+		long bit = 1L << (entry & 63);
+		long current;
+		while (((current = seen.get(word)) & bit) == 0 && !seen.compareAndSet(word, current, current | bit)) {
+			// retry, another bit in the word was set concurrently
+		}
+	}
+
+	private boolean isSeen(long entry) {
+		return (seen.get((int) (entry >>> 6)) & (1L << (entry & 63))) != 0;
+	}
+
+	// called for each written record, from one thread at a time
+	private synchronized void written(String id, int file, long offset, int length) throws IOException {
+		if (previous != null) {
+			long entry = previous.find(id.getBytes(StandardCharsets.UTF_8));
+			if (entry >= 0) {
+				markSeen(entry);
+			}
+		}
+		Deque<byte[]> pending = hashes.get(id);
+		byte[] hash = pending == null ? null : pending.poll();
+		if (pending != null && pending.isEmpty()) {
+			hashes.remove(id);
+		}
+		if (hash != null) {
+			entries.add(id.getBytes(StandardCharsets.UTF_8), ByteBuffer.allocate(HASH_LENGTH + 4 + 8 + 4).put(hash)
+					.putInt(file).putLong(offset).putInt(length).array());
+		}
+	}
+
+	/** Writes bulk index data to a temporary file, and adds the records to the manifest. */
+	private class Output extends BulkFileWriter {
+
+		final int number;
+		final Path file;
+		final Path temp;
+
+		Output(int number, Path file, Path temp) {
+			super(temp, 0);
+			this.number = number;
+			this.file = file;
+			this.temp = temp;
+		}
+
+		@Override
+		public synchronized void process(String bulk) {
+			long start = position();
+			super.process(bulk);
+			// the index action line, then the JSON of the record
+			String action = bulk.substring(0, bulk.indexOf('\n') + 1);
+			long json = start + action.getBytes(StandardCharsets.UTF_8).length;
+			JsonNode id = Json.parse(action).findValue("_id");
+			if (id != null) {
+				String gndId = id.asText().substring(id.asText().lastIndexOf('/') + 1);
+				try {
+					written(gndId, number, json, (int) (position() - json - 1));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+}
@@ -3,20 +3,23 @@ package apps;
 import static apps.Convert.config;
 import static controllers.HomeController.CONFIG;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.Normalizer;
-import java.text.Normalizer.Form;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -25,16 +28,12 @@ import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.Settings.Builder;
 import org.elasticsearch.common.xcontent.XContentType;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import controllers.HomeController;
 import models.AuthorityResource;
@@ -45,7 +44,6 @@ import play.api.inject.BindingKey;
 import play.inject.Injector;
 import play.inject.guice.GuiceApplicationBuilder;
 import play.libs.Json;
-import play.mvc.Http.Status;
 
 public class Index {
 
@@ -56,17 +54,32 @@ public class Index {
 	private static final int BULK_SIZE = app.isTest() ? 5 : 1000;
 	
 	public static void main(String[] args) {
-		List<String> options = Arrays.asList("baseline", "updates", "entityfacts");
+		List<String> options = Arrays.asList("baseline", "updates", "entityfacts", "convert", "baseline-lifecycle");
+		boolean resume = Arrays.asList(args).contains(ConvertBaseline.RESUME);
+		boolean rollback = Arrays.asList(args).contains(IndexLifecycle.ROLLBACK);
+		args = Arrays.stream(args)
+				.filter(arg -> !arg.equals(ConvertBaseline.RESUME) && !arg.equals(IndexLifecycle.ROLLBACK))
+				.toArray(String[]::new);
 		if (args.length == 1 && options.contains(args[0])) {
 			if (args[0].equals(options.get(0))) {
-				index(indexName, client, config("data.jsonlines"), config("index.delete.baseline"));
+				index(indexName, client, config("data.jsonlines"), config("index.delete.baseline"), resume);
 			} else if (args[0].equals(options.get(1))) {
-				index(indexName, client, config("data.updates.data"), config("index.delete.updates"));
+				try {
+					indexUpdates(indexName, client, resume);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			} else if (args[0].equals(options.get(3))) {
+				convertAndIndex(indexName, client, resume);
+			} else if (args[0].equals(options.get(4))) {
+				baselineLifecycle(client, resume, rollback);
 			} else {
 				indexEntityFactsJsonLdDump();
 			}
 		} else {
-			System.err.println("Pass one argument, on of " + options + ". See config/application.conf.");
+			System.err.println("Pass one argument, on of " + options + ". See config/application.conf. "
+					+ "Pass " + ConvertBaseline.RESUME + " in addition to resume from the last checkpoint, "
+					+ IndexLifecycle.ROLLBACK + " with " + options.get(4) + " to switch the aliases back.");
 		}
 		client.close();
 		// Why is this required? Also needs 'trapExit := false' in build.sbt
@@ -134,44 +147,200 @@ public class Index {
 
 	public static IndexComponent indexBaselineAndUpdates() {
 		index(indexName, client, config("data.jsonlines"), config("index.delete.baseline"));
-		index(indexName, client, config("data.updates.data"), config("index.delete.updates"));
+		try {
+			indexUpdates(indexName, client, false);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 		return index;
 	}
 
+	/**
+	 * Index the updates in `data.updates.data` in order, see
+	 * {@link #indexData(Client, String, String, boolean, boolean)}, and delete
+	 * the IDs in `index.delete.updates`.
+	 *
+	 * @throws IOException If the updates could not be read, or any of them
+	 *             could not be indexed, so they can be indexed again
+	 */
+	static void indexUpdates(String indexName, Client client, boolean resume) throws IOException {
+		createIndexIfMissing(client, indexName);
+		long failed = 0;
+		if (new File(config("data.updates.data")).exists()) {
+			Logger.info("Indexing {} into index {}", config("data.updates.data"), indexName);
+			failed = indexData(client, config("data.updates.data"), indexName, resume, true);
+		}
+		deleteDeprecatedResources(client, indexName, config("index.delete.updates"));
+		if (failed > 0) {
+			throw new IOException(String.format("%s updates could not be indexed into %s", failed, indexName));
+		}
+		Logger.info("Indexing done");
+	}
+
 	static void index(String indexName, Client client, String pathToJson, String pathToDeprecated) {
+		index(indexName, client, pathToJson, pathToDeprecated, false);
+	}
+
+	static void index(String indexName, Client client, String pathToJson, String pathToDeprecated,
+			boolean resume) {
 		indexName = indexName == null ? config("index.prod.name") : indexName;
 		try {
-			if (!Index.indexExists(client, indexName)) {
-				Logger.info("Creating new empty index {}", indexName);
-				Index.createEmptyIndex(client, indexName, config("index.settings"));
-			} else {
-				Logger.info("Index {} exists. Delete index or change index name in config to create new index",
-						indexName);
-			}
+			createIndexIfMissing(client, indexName);
 			if (new File(pathToJson).exists()) {
 				Logger.info("Indexing {} into index {}", pathToJson, indexName);
-				Index.indexData(client, pathToJson, indexName);
+				Index.indexData(client, pathToJson, indexName, resume);
+			}
+			deleteDeprecatedResources(client, indexName, pathToDeprecated);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		Logger.info("Indexing done");
+	}
+
+	private static void createIndexIfMissing(Client client, String indexName) throws IOException {
+		if (!Index.indexExists(client, indexName)) {
+			Logger.info("Creating new empty index {}", indexName);
+			Index.createEmptyIndex(client, indexName, config("index.settings"));
+		} else {
+			Logger.info("Index {} exists. Delete index or change index name in config to create new index",
+					indexName);
+		}
+	}
+
+	/**
+	 * Convert the baseline RDF/XML in `data.rdfxml` and index the converted
+	 * records directly, without reading them from the bulk JSON lines. If
+	 * `data.convert.jsonlines` is set, the bulk JSON lines are written to
+	 * `data.jsonlines` too.
+	 */
+	static void convertAndIndex(String indexName, Client client, boolean resume) {
+		try {
+			createIndexIfMissing(client, indexName);
+			File out = CONFIG.getBoolean("data.convert.jsonlines") ? new File(config("data.jsonlines")) : null;
+			try (BulkIndexer indexer = bulkIndexer(client, indexName, config("index.type"))) {
+				Logger.info("Converting {} and indexing into index {}", config("data.rdfxml"), indexName);
+				ConvertBaseline.convert(new File(config("data.rdfxml")), out,
+						new File(config("index.delete.baseline")), indexer, resume);
 			}
-			deleteDeprecatedResources(client, pathToDeprecated);
+			client.admin().indices().refresh(new RefreshRequest()).actionGet();
+			deleteDeprecatedResources(client, indexName, config("index.delete.baseline"));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		Logger.info("Indexing done");
 	}
 
+	/**
+	 * Load the baseline into a new dated index and switch the aliases to it, or
+	 * switch them back to the previous indexes, see {@link IndexLifecycle}.
+	 */
+	static void baselineLifecycle(Client client, boolean resume, boolean rollback) {
+		if (rollback) {
+			IndexLifecycle.rollback(client,
+					Arrays.asList(config("index.lifecycle.alias"), config("index.lifecycle.entityfacts.alias")));
+			return;
+		}
+		try {
+			IndexLifecycle.run(client, resume);
+		} catch (IOException | IllegalStateException e) {
+			Logger.error("Baseline lifecycle failed, aliases not switched: {}", e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
 	public static void indexData(final Client client, final String path, final String index) throws IOException {
+		indexData(client, path, index, false);
+	}
+
+	/**
+	 * Index the JSON lines file at the path, or the JSON lines files in the
+	 * directory at the path, with the records in any order, see
+	 * {@link #indexData(Client, String, String, boolean, boolean)}.
+	 */
+	static void indexData(final Client client, final String path, final String index, boolean resume)
+			throws IOException {
+		indexData(client, path, index, resume, false);
+	}
+
+	/**
+	 * Index the JSON lines file at the path, or the JSON lines files in the
+	 * directory at the path, in sorted order. The files, and files larger than
+	 * `index.read.split` MB in parts of that size, are read by
+	 * `index.read.threads` readers at the same time, sending their records to
+	 * the same bulk requests, with up to `index.bulk.concurrent` in flight. This
+	 * is for unique records, like in the converted baseline: the order in which
+	 * the records are indexed is not defined.
+	 *
+	 * @param resume If true, resume from the checkpoint in `index.checkpoint`
+	 *            for the index (see {@link Checkpoint#file}), which is written
+	 *            when a part is done together with all parts before it, see
+	 *            {@link InputPart.Progress}
+	 * @param inOrder If true, index the records in the order of the input, with
+	 *            one reader and one bulk request in flight, so the last version
+	 *            of a record in the input is the one indexed, e.g. for updates
+	 *            that are not deduplicated or replayed from backups
+	 * @return The number of records that could not be indexed
+	 */
+	static long indexData(final Client client, final String path, final String index, boolean resume,
+			boolean inOrder) throws IOException {
 		File file = new File(path);
 		FileFilter fileFilter = new SuffixFileFilter("jsonl");
-		for (File f : file.isDirectory() ? file.listFiles(fileFilter) : new File[] { file }) {
-			try (BufferedReader br = new BufferedReader(
-					new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
-				bulkIndex(br, client, index);
+		File[] files = file.isDirectory() ? file.listFiles(fileFilter) : new File[] { file };
+		List<String> input = Arrays.stream(files).map(File::getAbsolutePath).sorted().collect(Collectors.toList());
+		Path checkpointFile = Checkpoint.file(config("index.checkpoint"), index);
+		Checkpoint checkpoint = resume ? Checkpoint.read(checkpointFile, index) : null;
+		if (checkpoint != null && !input.contains(checkpoint.input)) {
+			Logger.warn("Checkpoint input {} is not in {}, starting from the beginning", checkpoint.input, path);
+			checkpoint = null;
+		}
+		List<InputPart> parts = InputPart.Progress
+				.resume(InputPart.split(input, CONFIG.getLong("index.read.split") * 1024 * 1024), checkpoint);
+		int readers = inOrder ? 1 : CONFIG.getInt("index.read.threads");
+		Logger.info("Reading {} parts of {} files with {} readers", parts.size(), input.size(), readers);
+		InputPart.Progress progress = new InputPart.Progress(parts, checkpointFile, index);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, readers), runnable -> {
+			Thread thread = new Thread(runnable, "index-reader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		int inFlight = inOrder ? 1 : CONFIG.getInt("index.bulk.concurrent");
+		long failed;
+		try (BulkIndexer indexer = bulkIndexer(client, index, config("index.type"), inFlight)) {
+			List<Future<Long>> read = new ArrayList<>();
+			for (InputPart part : parts) {
+				Runnable acknowledged = () -> {
+					if (part.acknowledge()) {
+						progress.update();
+					}
+				};
+				read.add(executor.submit(() -> {
+					long records = part.read((id, source) -> {
+						part.sent();
+						indexer.index(id, source, acknowledged);
+					});
+					acknowledged.run();
+					return records;
+				}));
+			}
+			for (Future<Long> records : read) {
+				records.get();
 			}
+			indexer.flush();
+			failed = indexer.failed();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while indexing " + path);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
 		}
 		client.admin().indices().refresh(new RefreshRequest()).actionGet();
+		Files.deleteIfExists(checkpointFile);
+		return failed;
 	}
 
-	private static void updateSettings(final Client client, final String index, Builder settings) {
+	static void updateSettings(final Client client, final String index, Builder settings) {
 		UpdateSettingsResponse response = client.admin().indices().prepareUpdateSettings(index).setSettings(settings)
 				.get();
 		if (!response.isAcknowledged()) {
@@ -179,76 +348,63 @@ public class Index {
 		}
 	}
 
-	static BulkRequestBuilder bulkRequest = null;
-
-	private static void bulkIndex(final BufferedReader br, final Client client, final String indexName)
-			throws IOException {
-		final ObjectMapper mapper = new ObjectMapper();
-		String line;
-		int currentLine = 1;
-		String data = null;
-		String[] idUriParts = null;
-		String id = null;
-
-		bulkRequest = client.prepareBulk();
-		int pendingIndexRequests = 0;
-
-		// First line: index with id, second line: source
-		while ((line = br.readLine()) != null) {
-			JsonNode rootNode = mapper.readValue(line, JsonNode.class);
-			if (currentLine % 2 != 0) {
-				JsonNode index = rootNode.get("index");
-				idUriParts = index.findValue("_id").asText().split("/");
-				id = idUriParts[idUriParts.length - 1].replace("#!", "");
-			} else {
-				Form nfc = Normalizer.Form.NFC;
-				data = Normalizer.isNormalized(line, nfc) ? line : Normalizer.normalize(line, nfc);
-				bulkRequest.add(
-						client.prepareIndex(indexName, config("index.type"), id).setSource(data, XContentType.JSON));
-				pendingIndexRequests++;
-			}
-			currentLine++;
-			if (pendingIndexRequests == BULK_SIZE) {
-				executeBulk(pendingIndexRequests);
-				bulkRequest = client.prepareBulk();
-				pendingIndexRequests = 0;
-			}
-		}
-		executeBulk(pendingIndexRequests);
+	// Bulk requests configured in index.bulk
+	private static BulkIndexer bulkIndexer(final Client client, final String indexName, final String type) {
+		return bulkIndexer(client, indexName, type, CONFIG.getInt("index.bulk.concurrent"));
 	}
 
-	private static void executeBulk(int pendingIndexRequests) {
-		if (pendingIndexRequests == 0) {
-			return;
-		}
-		BulkResponse bulkResponse = bulkRequest.execute().actionGet();
-		if (bulkResponse.hasFailures()) {
-			bulkResponse.forEach(item -> {
-				if (item.isFailed()) {
-					Logger.error("Indexing {} failed: {}", item.getId(), item.getFailureMessage());
-				}
-			});
-		}
-		Logger.info("Indexed {} docs, took: {}", pendingIndexRequests, bulkResponse.getTook());
+	private static BulkIndexer bulkIndexer(final Client client, final String indexName, final String type,
+			final int inFlight) {
+		return new BulkIndexer(client, indexName, type, BULK_SIZE, CONFIG.getLong("index.bulk.size") * 1024 * 1024,
+				CONFIG.getLong("index.bulk.flush") * 1000, inFlight, CONFIG.getLong("index.bulk.retryWait"),
+				CONFIG.getInt("index.bulk.retries"));
 	}
 
-	private static void deleteDeprecatedResources(Client client, String delete) throws IOException {
+	/**
+	 * Delete the records with the IDs listed in the file, and log the report and
+	 * write it to `index.delete.report`, see {@link #deleteRecords}.
+	 */
+	static void deleteDeprecatedResources(Client client, String indexName, String delete) throws IOException {
 		File file = new File(delete);
-		Logger.info("Deleting entities listed in {}", file);
+		Logger.info("Deleting entities listed in {} from {}", file, indexName);
 		if (file.exists()) {
-			try (Scanner s = new Scanner(new FileInputStream(file))) {
-				while (s.hasNextLine()) {
-					String id = s.nextLine();
-					DeleteResponse response = client.prepareDelete(config("index.prod.name"), config("index.type"), id)
-							.execute().actionGet();
-					Logger.debug("Delete {}: status {}: {}", id, response.status(), response);
-					if (response.status().getStatus() == Status.OK) {
-						Logger.info("Deleted {}", id);
-					}
+			writeDeleteReport(deleteRecords(client, indexName, file));
+			Logger.info("Delete and refresh done");
+		}
+	}
+
+	/**
+	 * Delete the records with the IDs listed in the file, one per line, in bulk
+	 * requests like indexing (see `index.bulk`).
+	 *
+	 * @return The report: the numbers of records deleted, not found, and
+	 *         failed, and the IDs that failed
+	 */
+	static ObjectNode deleteRecords(Client client, String indexName, File file) throws IOException {
+		ObjectNode report = Json.newObject().put("file", file.getAbsolutePath()).put("index", indexName);
+		try (Scanner s = new Scanner(new FileInputStream(file), StandardCharsets.UTF_8.name());
+				BulkIndexer deleter = bulkIndexer(client, indexName, config("index.type"))) {
+			while (s.hasNextLine()) {
+				String id = s.nextLine().trim();
+				if (!id.isEmpty()) {
+					deleter.delete(id);
 				}
 			}
-			client.admin().indices().refresh(new RefreshRequest()).actionGet();
-			Logger.info("Delete and refresh done");
+			deleter.flush();
+			report.put("deleted", deleter.deleted()).put("notFound", deleter.notFound()).put("failed",
+					deleter.failed());
+			deleter.failedDeletes().forEach(report.putArray("failedIds")::add);
+		}
+		client.admin().indices().refresh(new RefreshRequest(indexName)).actionGet();
+		return report;
+	}
+
+	private static void writeDeleteReport(ObjectNode report) throws IOException {
+		String json = Json.prettyPrint(report);
+		Logger.info("Delete report: {}", json);
+		String file = config("index.delete.report");
+		if (!file.isEmpty()) {
+			Files.write(Paths.get(file), json.getBytes(StandardCharsets.UTF_8));
 		}
 	}
 
@@ -266,20 +422,15 @@ public class Index {
 			Logger.info("Indexing {} into new index {}", data, indexName);
 			createEmptyIndex(client, indexName, null);
 			updateSettings(client, indexName, Settings.builder().put("index.number_of_replicas", 0));
-			bulkRequest = client.prepareBulk();
-			stream.forEach(line -> {
-				String json = line.substring(1);
-				if (!json.isEmpty()) {
-					String id = Json.parse(json).get("@id").textValue().substring(prefixLength);
-					bulkRequest.add(index.client().prepareIndex(indexName, indexType).setId(id).setSource(json,
-							XContentType.JSON));
-					if (bulkRequest.numberOfActions() == BULK_SIZE) {
-						executeBulk(bulkRequest.numberOfActions());
-						bulkRequest = client.prepareBulk();
+			try (BulkIndexer indexer = bulkIndexer(index.client(), indexName, indexType)) {
+				stream.forEach(line -> {
+					String json = line.substring(1);
+					if (!json.isEmpty()) {
+						String id = Json.parse(json).get("@id").textValue().substring(prefixLength);
+						indexer.index(id, json.getBytes(StandardCharsets.UTF_8));
 					}
-				}
-			});
-			executeBulk(bulkRequest.numberOfActions());
+				});
+			}
 			updateSettings(client, indexName, Settings.builder().put("index.number_of_replicas", 1));
 			index.client().admin().indices().refresh(new RefreshRequest()).actionGet();
 		} catch (IOException e) {
@@ -0,0 +1,234 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import static apps.Convert.config;
+import static controllers.HomeController.CONFIG;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeResponse;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+
+import play.Logger;
+
+/**
+ * Loads a new baseline into a dated index and switches the aliases used by the
+ * application to it, configured in `index.lifecycle`:
+ *
+ * 1. create the index `name` (default: `<alias>_<yyyyMMdd>`) with no
+ * replicas, no refreshes and async translog, 2. index `data.jsonlines` and
+ * delete the deprecated IDs in `index.delete.baseline` (see
+ * {@link Index#indexData}), 3. restore refreshes, translog durability and
+ * replicas, 4. force merge to `segments` segments, 5. wait for the replicas and
+ * run the `warm` queries, 6. switch the `alias` to the new index and the
+ * `entityfacts.alias` to `index.entityfacts.index`, in one atomic request.
+ *
+ * Run with: sbt "runMain apps.Index baseline-lifecycle"
+ *
+ * Point the aliases back to the indexes before the current ones with: sbt
+ * "runMain apps.Index baseline-lifecycle --rollback"
+ */
+final class IndexLifecycle {
+
+	static final String ROLLBACK = "--rollback";
+
+	private IndexLifecycle() {
+		// static methods only
+	}
+
+	/**
+	 * Run all steps for the baseline of today, see {@link IndexLifecycle}.
+	 *
+	 * @param client The client for the cluster
+	 * @param resume If true, resume loading into the index of today, if it
+	 *            exists, from the checkpoint in `index.checkpoint`, if it is
+	 *            for that index; if the index does not exist (e.g. after
+	 *            midnight), load a new one from the beginning
+	 * @return The name of the new index
+	 */
+	static String run(Client client, boolean resume) throws IOException {
+		String alias = config("index.lifecycle.alias");
+		String index = config("index.lifecycle.name").isEmpty() ? datedName(alias, LocalDate.now())
+				: config("index.lifecycle.name");
+		boolean exists = Index.indexExists(client, index);
+		if (exists && !resume) {
+			throw new IllegalStateException(String.format(
+					"Index %s exists: delete it, or pass %s to continue loading into it", index,
+					ConvertBaseline.RESUME));
+		}
+		if (!exists) {
+			if (resume) {
+				Logger.warn("Index {} does not exist, loading it from the beginning", index);
+			}
+			create(client, index);
+		}
+		Logger.info("Loading {} into {}", config("data.jsonlines"), index);
+		// a checkpoint is only for the index it was written for, see Checkpoint#read
+		Index.indexData(client, config("data.jsonlines"), index, resume && exists);
+		Index.deleteDeprecatedResources(client, index, config("index.delete.baseline"));
+		long records = client.prepareSearch(index).setSize(0).get().getHits().getTotalHits();
+		if (records == 0) {
+			throw new IllegalStateException("No records in " + index + ", not switching " + alias);
+		}
+		restore(client, index, CONFIG.getInt("index.lifecycle.replicas"));
+		forceMerge(client, index, CONFIG.getInt("index.lifecycle.segments"));
+		waitForReplicas(client, index, TimeValue.timeValueMinutes(CONFIG.getLong("index.lifecycle.timeout")));
+		warm(client, index, CONFIG.getStringList("index.lifecycle.warm"));
+		Map<String, String> aliases = new LinkedHashMap<>();
+		aliases.put(alias, index);
+		String entityFactsAlias = config("index.lifecycle.entityfacts.alias");
+		String entityFacts = config("index.entityfacts.index");
+		if (!entityFacts.equals(entityFactsAlias) && Index.indexExists(client, entityFacts)) {
+			aliases.put(entityFactsAlias, entityFacts);
+		} else {
+			Logger.warn("No new Entity Facts index in index.entityfacts.index ({}), not switching {}", entityFacts,
+					entityFactsAlias);
+		}
+		switchAliases(client, aliases);
+		Logger.info("Baseline lifecycle done: {} records in {}", records, index);
+		return index;
+	}
+
+	/**
+	 * Point the aliases back to the indexes before the current ones: the indexes
+	 * named like `<alias>_<date>` that sort last before the current ones.
+	 *
+	 * @param client The client for the cluster
+	 * @param aliases The aliases to point back
+	 * @return The aliases switched, with the indexes they point to now
+	 */
+	static Map<String, String> rollback(Client client, List<String> aliases) {
+		Map<String, String> previous = new LinkedHashMap<>();
+		for (String alias : aliases) {
+			List<String> current = indexes(client, alias);
+			String before = previousIndex(client, alias, current);
+			if (before == null) {
+				Logger.warn("No index before {} for alias {}, not switching it", current, alias);
+			} else {
+				previous.put(alias, before);
+			}
+		}
+		if (!previous.isEmpty()) {
+			switchAliases(client, previous);
+		}
+		return previous;
+	}
+
+	/** @return The name of the index for the alias at the date, e.g. gnd_20260101 */
+	static String datedName(String alias, LocalDate date) {
+		return alias + "_" + date.format(DateTimeFormatter.BASIC_ISO_DATE);
+	}
+
+	/**
+	 * Create the index with the settings and mappings in `index.settings`, for
+	 * bulk loading: without replicas and refreshes, and with an async translog.
+	 */
+	static void create(Client client, String index) throws IOException {
+		Logger.info("Creating {} for bulk loading", index);
+		Index.createEmptyIndex(client, index, config("index.settings"));
+		Index.updateSettings(client, index, Settings.builder().put("index.number_of_replicas", 0)
+				.put("index.refresh_interval", "-1").put("index.translog.durability", "async"));
+	}
+
+	/** Restore refreshes, translog durability and replicas after bulk loading. */
+	static void restore(Client client, String index, int replicas) {
+		Logger.info("Restoring settings of {}, with {} replicas", index, replicas);
+		Index.updateSettings(client, index,
+				Settings.builder().put("index.refresh_interval", config("index.lifecycle.refresh"))
+						.put("index.translog.durability", "request").put("index.number_of_replicas", replicas));
+		client.admin().indices().refresh(new RefreshRequest(index)).actionGet();
+	}
+
+	/** Merge the segments of the index, which gets no more writes until the next updates. */
+	static void forceMerge(Client client, String index, int segments) {
+		long start = System.nanoTime();
+		ForceMergeResponse response = client.admin().indices().prepareForceMerge(index).setMaxNumSegments(segments)
+				.get(TimeValue.timeValueHours(12));
+		if (response.getFailedShards() > 0) {
+			throw new IllegalStateException(String.format("Force merge of %s failed on %s shards: %s", index,
+					response.getFailedShards(), Arrays.toString(response.getShardFailures())));
+		}
+		Logger.info("Merged {} to {} segments in {} s", index, segments, (System.nanoTime() - start) / 1000000000);
+	}
+
+	/** Wait for the replicas of the index, i.e. for the index to be green. */
+	static void waitForReplicas(Client client, String index, TimeValue timeout) {
+		ClusterHealthResponse health = client.admin().cluster().prepareHealth(index).setWaitForGreenStatus()
+				.setTimeout(timeout).get();
+		if (health.isTimedOut()) {
+			Logger.warn("Index {} is {} after {}, switching anyway", index, health.getStatus(), timeout);
+		}
+	}
+
+	/** Run the queries on the index, to load its caches before it is used. */
+	static void warm(Client client, String index, List<String> queries) {
+		for (String query : queries) {
+			SearchResponse response = client.prepareSearch(index).setQuery(QueryBuilders.queryStringQuery(query))
+					.setSize(10).get();
+			Logger.info("Warming {} with {}: {} hits, took {}", index, query, response.getHits().getTotalHits(),
+					response.getTook());
+		}
+	}
+
+	/**
+	 * Point each alias to its index, and remove it from the indexes it pointed
+	 * to before, all in one atomic request, so searches always find one index.
+	 *
+	 * @param aliases The aliases, with the index to point each to
+	 */
+	static void switchAliases(Client client, Map<String, String> aliases) {
+		IndicesAliasesRequestBuilder request = client.admin().indices().prepareAliases();
+		for (Map.Entry<String, String> alias : aliases.entrySet()) {
+			List<String> current = indexes(client, alias.getKey());
+			for (String index : current) {
+				request.removeAlias(index, alias.getKey());
+			}
+			request.addAlias(alias.getValue(), alias.getKey());
+			Logger.info("Switching alias {} from {} to {}", alias.getKey(), current, alias.getValue());
+		}
+		if (!request.get().isAcknowledged()) {
+			throw new IllegalStateException("Switching aliases not acknowledged: " + aliases);
+		}
+	}
+
+	/** @return The indexes the alias points to, sorted */
+	static List<String> indexes(Client client, String alias) {
+		ImmutableOpenMap<String, List<AliasMetaData>> aliases = client.admin().indices().prepareGetAliases(alias)
+				.get().getAliases();
+		List<String> indexes = new ArrayList<>();
+		aliases.forEach(index -> {
+			if (!index.value.isEmpty()) {
+				indexes.add(index.key);
+			}
+		});
+		return indexes.stream().sorted().collect(Collectors.toList());
+	}
+
+	// The dated index of the alias sorting last before the current ones
+	private static String previousIndex(Client client, String alias, List<String> current) {
+		if (current.isEmpty()) {
+			return null;
+		}
+		String first = current.get(0);
+		return Arrays.stream(client.admin().indices().prepareGetIndex().setIndices(alias + "_*").get().indices())
+				.filter(index -> index.compareTo(first) < 0).sorted().reduce((a, b) -> b).orElse(null);
+	}
+}
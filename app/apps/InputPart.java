@@ -0,0 +1,211 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import play.Logger;
+
+/**
+ * A byte range of a JSON lines file to index, read by one of the readers of
+ * {@link Index#indexData}. Files larger than the split size are split into
+ * parts of about that size. The lines belong to the part in which they start,
+ * so the parts of a file read each line once: a part starting within a line
+ * skips to the next one, and reads on past its end to the line break. In bulk
+ * JSON lines, a part owns the records of the action lines starting in it.
+ */
+final class InputPart {
+
+	/** The file of the part */
+	final String file;
+	/** The byte offset in the file at which the part starts */
+	final long start;
+	/** The byte offset in the file at which the next part starts */
+	final long end;
+	/** True if the file is in the bulk format, with action lines */
+	final boolean actions;
+	/** True if this is the last part of the file */
+	final boolean last;
+	// the reading of the part, and the records sent that are not acknowledged yet
+	private final AtomicLong pending = new AtomicLong(1);
+
+	InputPart(String file, long start, long end, boolean actions, boolean last) {
+		this.file = file;
+		this.start = start;
+		this.end = end;
+		this.actions = actions;
+		this.last = last;
+	}
+
+	/**
+	 * @param files The files to split, in the order to index them
+	 * @param splitBytes The size of the parts in bytes
+	 * @return The parts of the files, in the order of the files, and in each
+	 *         file in the order of the bytes
+	 */
+	static List<InputPart> split(List<String> files, long splitBytes) throws IOException {
+		List<InputPart> parts = new ArrayList<>();
+		for (String file : files) {
+			boolean actions;
+			try (BulkLines lines = new BulkLines(new FileInputStream(file))) {
+				byte[] first = lines.next();
+				actions = first != null && BulkLines.isAction(first);
+			}
+			long length = new File(file).length();
+			long count = Math.max(1, (length + splitBytes - 1) / Math.max(1, splitBytes));
+			for (long i = 0; i < count; i++) {
+				parts.add(new InputPart(file, length * i / count, length * (i + 1) / count, actions, i == count - 1));
+			}
+		}
+		return parts;
+	}
+
+	/**
+	 * @param records Receives the ID and the source of each record of the part,
+	 *            see {@link BulkLines}
+	 * @return The number of records read
+	 */
+	long read(BiConsumer<String, byte[]> records) throws IOException {
+		// from the byte before the part, to know if the part starts at a line break
+		long offset = Math.max(0, start - 1);
+		long count = 0;
+		try (FileInputStream in = new FileInputStream(file)) {
+			in.getChannel().position(offset);
+			BulkLines lines = new BulkLines(in);
+			if (start > 0) {
+				// the end of the line before the part, read by the part before
+				lines.next();
+			}
+			String id = null;
+			boolean record = false;
+			byte[] line;
+			for (long lineStart = offset + lines.offset(); (line = lines.next()) != null; lineStart = offset
+					+ lines.offset()) {
+				if (!record && lineStart >= end) {
+					break;
+				}
+				if (actions && !record) {
+					// a record here is the record of the last action of the part before
+					if (BulkLines.isAction(line)) {
+						id = BulkLines.actionId(line);
+						record = true;
+					}
+					continue;
+				}
+				record = false;
+				String recordId = actions ? id : BulkLines.documentId(line);
+				if (recordId == null) {
+					Logger.error("No ID to index record in {}, at byte {}", file, lineStart);
+				} else {
+					records.accept(recordId, BulkLines.nfc(line));
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/** Count a record sent for indexing, to be acknowledged when indexed. */
+	void sent() {
+		pending.incrementAndGet();
+	}
+
+	/**
+	 * Acknowledge a record sent for indexing when its request completed, or the
+	 * reading of the part when it is read completely.
+	 *
+	 * @return True if the part is done with this, i.e. read completely, and all
+	 *         records sent were acknowledged
+	 */
+	boolean acknowledge() {
+		return pending.decrementAndGet() == 0;
+	}
+
+	/** @return True if the part was read completely and all records were acknowledged */
+	boolean isDone() {
+		return pending.get() == 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s [%s, %s)", file, start, end);
+	}
+
+	/**
+	 * The progress of indexing parts that are read at the same time: the parts
+	 * are done in any order, but the progress only advances over the parts done
+	 * together with all parts before them, in the order of the parts. The
+	 * checkpoint is the first part not done, with the byte offset of the part as
+	 * the length done, so resuming from it reads the same parts again, whatever
+	 * the order they were done in before.
+	 */
+	static final class Progress {
+
+		private final List<InputPart> parts;
+		private final Path checkpointFile;
+		private final String index;
+		private int next;
+
+		/**
+		 * @param parts The parts, in the order of {@link InputPart#split}
+		 * @param checkpointFile The file to write the checkpoint to, or null
+		 * @param index The index the parts are indexed into
+		 */
+		Progress(List<InputPart> parts, Path checkpointFile, String index) {
+			this.parts = parts;
+			this.checkpointFile = checkpointFile;
+			this.index = index;
+		}
+
+		/**
+		 * @param parts The parts, in the order of {@link InputPart#split}
+		 * @param checkpoint The checkpoint to resume from, or null
+		 * @return The parts not done before the checkpoint
+		 */
+		static List<InputPart> resume(List<InputPart> parts, Checkpoint checkpoint) {
+			List<InputPart> remaining = new ArrayList<>();
+			for (InputPart part : parts) {
+				if (checkpoint == null || !(checkpoint.isDone(part.file)
+						|| part.file.equals(checkpoint.input) && part.start < checkpoint.length)) {
+					remaining.add(part);
+				}
+			}
+			return remaining;
+		}
+
+		/**
+		 * Advance over the parts done, logging the files done and writing the
+		 * checkpoint. Called when a part is done.
+		 */
+		synchronized void update() {
+			int before = next;
+			while (next < parts.size() && parts.get(next).isDone()) {
+				if (parts.get(next).last) {
+					Logger.info("Indexed {}", parts.get(next).file);
+				}
+				next++;
+			}
+			if (next > before && next < parts.size() && checkpointFile != null) {
+				InputPart part = parts.get(next);
+				try {
+					new Checkpoint(index, part.file, 0, part.start, Collections.emptyList()).write(checkpointFile);
+				} catch (IOException e) {
+					Logger.error("Could not write checkpoint {}: {}", checkpointFile, e.getMessage());
+				}
+			}
+		}
+
+		/** @return The number of parts done together with all parts before them */
+		synchronized int done() {
+			return next;
+		}
+	}
+}
@@ -0,0 +1,518 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import static com.github.jsonldjava.core.JsonLdConsts.BASE;
+import static com.github.jsonldjava.core.JsonLdConsts.ID;
+import static com.github.jsonldjava.core.JsonLdConsts.LANGUAGE;
+import static com.github.jsonldjava.core.JsonLdConsts.NONE;
+import static com.github.jsonldjava.core.JsonLdConsts.NULL;
+import static com.github.jsonldjava.core.JsonLdConsts.RDF_NIL;
+import static com.github.jsonldjava.core.JsonLdConsts.RDF_TYPE;
+import static com.github.jsonldjava.core.JsonLdConsts.SET;
+import static com.github.jsonldjava.core.JsonLdConsts.TYPE;
+import static com.github.jsonldjava.core.JsonLdConsts.VALUE;
+import static com.github.jsonldjava.core.JsonLdConsts.VOCAB;
+import static com.github.jsonldjava.core.JsonLdConsts.XSD_BOOLEAN;
+import static com.github.jsonldjava.core.JsonLdConsts.XSD_DOUBLE;
+import static com.github.jsonldjava.core.JsonLdConsts.XSD_INTEGER;
+import static com.github.jsonldjava.core.JsonLdConsts.XSD_STRING;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+import com.github.jsonldjava.core.Context;
+import com.github.jsonldjava.utils.JsonLdUrl;
+
+import play.Logger;
+
+/**
+ * Builds the compacted JSON-LD tree for a preprocessed record directly from the
+ * Jena model, producing the same result as writing the model as JSON-LD,
+ * framing it with the superclass and compacting it with our context (see
+ * {@link ConversionContext#frameAndCompact(Model)}), without the intermediate
+ * documents.
+ *
+ * For input the specialised rules don't cover (not exactly one node of the
+ * superclass, RDF lists, blank nodes that would keep their IDs in the framed
+ * output, properties with values of different kinds, or an unsupported
+ * context), {@link #build(Model)} returns null and the generic processing
+ * should be used.
+ */
+final class JsonLdBuilder {
+
+	private static final String CONTEXT = "@context";
+	private static final String NODE = ID;
+	private static final String LANGUAGE_KIND = LANGUAGE + " ";
+	private static final List<String> NODE_PREFERENCES = Arrays.asList(ID, VOCAB, NONE);
+	private static final Pattern PATTERN_INTEGER = Pattern.compile("^[\\-+]?[0-9]+$");
+	private static final Pattern PATTERN_DOUBLE = Pattern
+			.compile("^(\\+|-)?([0-9]+(\\.[0-9]*)?|\\.[0-9]+)([Ee](\\+|-)?[0-9]+)?$");
+
+	private final Object contextObject;
+	private final String superclass;
+	private final Context context;
+	private final Map<String, Object> inverse;
+	private final Map<String, String> typeMappings = new HashMap<>();
+	private final Map<String, String> languageMappings = new HashMap<>();
+	private final Prefixes prefixes = new Prefixes();
+	private final boolean supported;
+	private final String idAlias;
+	private final String typeAlias;
+	private final String valueAlias;
+	private final String languageAlias;
+
+	// property IRI -> value kind -> selected term, and compacted vocabulary IRIs
+	private final Map<String, Map<String, String>> terms = new ConcurrentHashMap<>();
+	private final Map<String, String> vocabulary = new ConcurrentHashMap<>();
+	private final Set<String> sets = new HashSet<>();
+
+	/**
+	 * @param contextObject The value of @context in our context document
+	 * @param context The processed context, with the inverse context computed
+	 * @param superclass The type of the root node of every record
+	 */
+	JsonLdBuilder(Object contextObject, Context context, String superclass) {
+		this.contextObject = contextObject;
+		this.superclass = superclass;
+		this.context = context;
+		this.inverse = context.getInverse();
+		this.supported = contextObject != null && processInverse() && checkContext();
+		context.getPrefixes(false).forEach(prefixes::add);
+		this.idAlias = compactIri(ID, null, true);
+		this.typeAlias = compactIri(TYPE, null, true);
+		this.valueAlias = compactIri(VALUE, null, true);
+		this.languageAlias = compactIri(LANGUAGE, null, true);
+		if (supported) {
+			precomputeTerms();
+		} else {
+			Logger.warn("JSON-LD context not supported by builder, using generic processing");
+		}
+	}
+
+	/**
+	 * @param model The preprocessed model of a single record
+	 * @return The compacted JSON-LD tree, or null if the model requires the
+	 *         generic framing and compaction
+	 */
+	Map<String, Object> build(Model model) {
+		if (!supported) {
+			return null;
+		}
+		Map<Node, Subject> subjects = new HashMap<>();
+		Node root = null;
+		ExtendedIterator<Triple> triples = model.getGraph().find(Node.ANY, Node.ANY, Node.ANY);
+		try {
+			while (triples.hasNext()) {
+				Triple triple = triples.next();
+				Node s = triple.getSubject();
+				Node p = triple.getPredicate();
+				Node o = triple.getObject();
+				if (isNil(s) || isNil(o)) {
+					return null;
+				}
+				Subject subject = subjects.computeIfAbsent(s, key -> new Subject());
+				if (o.isLiteral()) {
+					Map<String, Object> literal = literal(o);
+					if (literal.get(VALUE) instanceof String && ((String) literal.get(VALUE)).startsWith("_:")) {
+						return null;
+					}
+					if (!subject.add(p.getURI(), literal, kind(o, literal))) {
+						return null;
+					}
+				} else if (p.getURI().equals(RDF_TYPE)) {
+					if (o.isBlank()) {
+						return null;
+					}
+					if (!subject.types.contains(o.getURI())) {
+						subject.types.add(o.getURI());
+					}
+					if (o.getURI().equals(superclass)) {
+						if (root != null && !root.equals(s)) {
+							return null;
+						}
+						root = s;
+					}
+				} else {
+					if (!subject.add(p.getURI(), o, ID)) {
+						return null;
+					}
+				}
+			}
+		} finally {
+			triples.close();
+		}
+		if (root == null) {
+			return null;
+		}
+		Object result = embed(root, null, new Framing(subjects));
+		if (!(result instanceof Map)) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		Map<String, Object> map = (Map<String, Object>) result;
+		map.put(CONTEXT, contextObject);
+		return map;
+	}
+
+	/**
+	 * @param keyword A JSON-LD keyword
+	 * @return The alias for the keyword in our context, or the keyword itself
+	 */
+	String compactKeyword(String keyword) {
+		return compactIri(keyword, null, true);
+	}
+
+	// Frame node with @embed @always and compact it, see JsonLdApi#frame and #compact
+	private Object embed(Node node, String activeProperty, Framing framing) {
+		if (node.isBlank() && !framing.blankNodes.add(node)) {
+			return null; // blank node ID would occur more than once, would not be pruned
+		}
+		Subject subject = framing.stack.contains(node) ? null : framing.subjects.get(node);
+		String id = node.isURI() ? node.getURI() : null; // blank node IDs are pruned
+		int members = (id == null ? 0 : 1) + (subject == null ? 0 : subject.size());
+		if (id != null && members == 1 && ID.equals(typeMappings.get(activeProperty))) {
+			return compactIri(id, null, false);
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		if (id != null) {
+			result.put(idAlias, compactIri(id, null, false));
+		}
+		if (subject == null) {
+			return result;
+		}
+		framing.stack.push(node);
+		if (!subject.types.isEmpty()) {
+			List<String> types = new ArrayList<>(subject.types.size());
+			for (String type : subject.types) {
+				types.add(vocabulary.computeIfAbsent(type, iri -> compactIri(iri, null, true)));
+			}
+			result.put(typeAlias, types.size() == 1 ? types.get(0) : types);
+		}
+		for (Map.Entry<String, List<Object>> property : subject.properties.entrySet()) {
+			for (Object value : property.getValue()) {
+				String term;
+				Object item;
+				if (value instanceof Node) {
+					term = term(property.getKey(), null);
+					item = embed((Node) value, term, framing);
+					if (item == null) {
+						return null;
+					}
+				} else {
+					@SuppressWarnings("unchecked")
+					Map<String, Object> literal = (Map<String, Object>) value;
+					term = term(property.getKey(), literal);
+					item = compactValue(term, literal);
+				}
+				add(result, term, item);
+			}
+		}
+		framing.stack.pop();
+		return result;
+	}
+
+	// Add compacted item for term, see 7.6.6 in JsonLdApi#compact
+	@SuppressWarnings("unchecked")
+	private void add(Map<String, Object> result, String term, Object item) {
+		Object compacted = sets.contains(term) ? new ArrayList<>(Arrays.asList(item)) : item;
+		Object existing = result.get(term);
+		if (existing == null) {
+			result.put(term, compacted);
+		} else {
+			List<Object> values;
+			if (existing instanceof List) {
+				values = (List<Object>) existing;
+			} else {
+				values = new ArrayList<>();
+				values.add(existing);
+				result.put(term, values);
+			}
+			if (compacted instanceof List) {
+				values.addAll((List<Object>) compacted);
+			} else {
+				values.add(compacted);
+			}
+		}
+	}
+
+	// Value compaction for a literal, see Context#compactValue
+	private Object compactValue(String term, Map<String, Object> literal) {
+		Object value = literal.get(VALUE);
+		if (literal.containsKey(TYPE) && literal.get(TYPE).equals(typeMappings.get(term))) {
+			return value;
+		}
+		if (literal.containsKey(LANGUAGE) && literal.get(LANGUAGE).equals(languageMappings.get(term))) {
+			return value;
+		}
+		if (literal.size() == 1) {
+			return value;
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		if (literal.containsKey(LANGUAGE)) {
+			result.put(languageAlias, literal.get(LANGUAGE));
+		}
+		if (literal.containsKey(TYPE)) {
+			result.put(typeAlias, vocabulary.computeIfAbsent((String) literal.get(TYPE),
+					iri -> compactIri(iri, null, true)));
+		}
+		result.put(valueAlias, value);
+		return result;
+	}
+
+	private String term(String property, Map<String, Object> literal) {
+		String kind = literal == null ? NODE
+				: literal.containsKey(LANGUAGE) ? LANGUAGE_KIND + literal.get(LANGUAGE)
+						: literal.containsKey(TYPE) ? (String) literal.get(TYPE) : NULL;
+		return terms.computeIfAbsent(property, key -> new ConcurrentHashMap<>()).computeIfAbsent(kind,
+				key -> compactIri(property, literal == null ? null : literal, true));
+	}
+
+	// Select the terms for all properties and value kinds of the context up front
+	private void precomputeTerms() {
+		List<Map<String, Object>> literals = new ArrayList<>();
+		literals.add(null);
+		literals.add(new HashMap<>());
+		new HashSet<>(typeMappings.values()).stream().filter(type -> !type.equals(ID)).forEach(type -> {
+			Map<String, Object> literal = new HashMap<>();
+			literal.put(TYPE, type);
+			literals.add(literal);
+		});
+		new HashSet<>(languageMappings.values()).forEach(language -> {
+			Map<String, Object> literal = new HashMap<>();
+			literal.put(LANGUAGE, language);
+			literals.add(literal);
+		});
+		for (String property : inverse.keySet()) {
+			for (Map<String, Object> literal : literals) {
+				if (literal != null) {
+					literal.put(VALUE, "");
+				}
+				term(property, literal);
+			}
+		}
+		@SuppressWarnings("unchecked")
+		Set<String> definedTerms = ((Map<String, Object>) contextObject).keySet();
+		for (String term : definedTerms) {
+			if (SET.equals(context.getContainer(term))) {
+				sets.add(term);
+			}
+		}
+	}
+
+	// IRI compaction, see Context#compactIri (no @vocab, @list, @index, @reverse)
+	@SuppressWarnings("unchecked")
+	private String compactIri(String iri, Map<String, Object> value, boolean relativeToVocab) {
+		if (relativeToVocab && inverse.containsKey(iri)) {
+			List<String> containers = new ArrayList<>(3);
+			String typeLanguage = LANGUAGE;
+			String typeLanguageValue = NULL;
+			if (value != null && value.containsKey(VALUE)) {
+				if (value.containsKey(LANGUAGE)) {
+					containers.add(LANGUAGE);
+					typeLanguageValue = (String) value.get(LANGUAGE);
+				} else if (value.containsKey(TYPE)) {
+					typeLanguage = TYPE;
+					typeLanguageValue = (String) value.get(TYPE);
+				}
+			} else {
+				typeLanguage = TYPE;
+				typeLanguageValue = ID;
+			}
+			containers.add(SET);
+			containers.add(NONE);
+			List<String> preferredValues = ID.equals(typeLanguageValue) ? NODE_PREFERENCES
+					: Arrays.asList(typeLanguageValue, NONE);
+			Map<String, Object> containerMap = (Map<String, Object>) inverse.get(iri);
+			for (String container : containers) {
+				Map<String, Object> typeLanguageMap = (Map<String, Object>) containerMap.get(container);
+				if (typeLanguageMap != null) {
+					Map<String, Object> valueMap = (Map<String, Object>) typeLanguageMap.get(typeLanguage);
+					for (String item : preferredValues) {
+						if (valueMap.containsKey(item)) {
+							return (String) valueMap.get(item);
+						}
+					}
+				}
+			}
+		}
+		String compactIri = prefixes.compact(iri);
+		if (compactIri != null) {
+			return compactIri;
+		}
+		return relativeToVocab ? iri : JsonLdUrl.removeBase(context.get(BASE), iri);
+	}
+
+	// Collect type and language mappings of the selectable terms from the inverse context
+	@SuppressWarnings("unchecked")
+	private boolean processInverse() {
+		for (Object containers : inverse.values()) {
+			for (Map.Entry<String, Object> container : ((Map<String, Object>) containers).entrySet()) {
+				if (!container.getKey().equals(SET) && !container.getKey().equals(NONE)) {
+					return false;
+				}
+				Map<String, Object> typeLanguageMap = (Map<String, Object>) container.getValue();
+				for (Map.Entry<String, Object> type : ((Map<String, Object>) typeLanguageMap.get(TYPE)).entrySet()) {
+					if (type.getKey().equals(VOCAB) || type.getKey().startsWith("@") && !type.getKey().equals(ID)
+							&& !type.getKey().equals(NONE)) {
+						return false;
+					}
+					if (!type.getKey().equals(NONE)) {
+						typeMappings.put((String) type.getValue(), type.getKey());
+					}
+				}
+				for (Map.Entry<String, Object> language : ((Map<String, Object>) typeLanguageMap.get(LANGUAGE))
+						.entrySet()) {
+					if (language.getKey().equals(NULL)) {
+						return false;
+					}
+					if (!language.getKey().equals(LANGUAGE) && !language.getKey().equals(NONE)) {
+						languageMappings.put((String) language.getValue(), language.getKey());
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean checkContext() {
+		return context.get(VOCAB) == null && context.get(LANGUAGE) == null && contextObject instanceof Map
+				&& ((Map<String, Object>) contextObject).keySet().stream().noneMatch(term -> term.contains(":"));
+	}
+
+	private static boolean isNil(Node node) {
+		return node.isURI() && node.getURI().equals(RDF_NIL);
+	}
+
+	// JSON-LD value for a literal, like RDFDataset.Literal#toObject with native types
+	private static Map<String, Object> literal(Node node) {
+		Map<String, Object> result = new LinkedHashMap<>();
+		String value = node.getLiteralLexicalForm();
+		String language = node.getLiteralLanguage();
+		String type = node.getLiteralDatatypeURI();
+		result.put(VALUE, value);
+		if (language != null && !language.isEmpty()) {
+			result.put(LANGUAGE, language.toLowerCase()); // as in JSON-LD expansion
+		} else if (XSD_BOOLEAN.equals(type)) {
+			if ("true".equals(value) || "false".equals(value)) {
+				result.put(VALUE, Boolean.valueOf(value));
+			} else {
+				result.put(TYPE, type);
+			}
+		} else if (XSD_INTEGER.equals(type) && PATTERN_INTEGER.matcher(value).matches()
+				|| XSD_DOUBLE.equals(type) && PATTERN_DOUBLE.matcher(value).matches()) {
+			Double d = Double.parseDouble(value);
+			if (!d.isNaN() && !d.isInfinite()) {
+				if (XSD_INTEGER.equals(type)) {
+					Integer i = d.intValue();
+					if (i.toString().equals(value)) {
+						result.put(VALUE, i);
+					}
+				} else {
+					result.put(VALUE, d);
+				}
+			}
+		} else if (type != null && !XSD_STRING.equals(type)) {
+			result.put(TYPE, type);
+		}
+		return result;
+	}
+
+	/*
+	 * The kind of a value in the context generated when writing JSON-LD with Jena
+	 * (see JsonLDWriter#createJsonldContext): node references, plain and language
+	 * strings, or a datatype. Values of a different kind than the first value of a
+	 * property are written with a different key, changing their order when read.
+	 */
+	private static String kind(Node node, Map<String, Object> literal) {
+		String type = node.getLiteralDatatypeURI();
+		if (!node.getLiteralLanguage().isEmpty() || XSD_STRING.equals(type)) {
+			return NONE;
+		}
+		return literal.containsKey(TYPE) ? type : VALUE + " " + type;
+	}
+
+	private static class Subject {
+		final List<String> types = new ArrayList<>();
+		final Map<String, List<Object>> properties = new TreeMap<>();
+		final Map<String, String> kinds = new HashMap<>();
+
+		// false if the property already has values of a different kind
+		boolean add(String property, Object value, String kind) {
+			if (!kind.equals(kinds.computeIfAbsent(property, key -> kind))) {
+				return false;
+			}
+			List<Object> values = properties.computeIfAbsent(property, key -> new ArrayList<>());
+			if (!values.contains(value)) {
+				values.add(value);
+			}
+			return true;
+		}
+
+		int size() {
+			return (types.isEmpty() ? 0 : 1) + properties.size();
+		}
+	}
+
+	private static class Framing {
+		final Map<Node, Subject> subjects;
+		final Deque<Node> stack = new ArrayDeque<>();
+		final Set<Node> blankNodes = new HashSet<>();
+
+		Framing(Map<Node, Subject> subjects) {
+			this.subjects = subjects;
+		}
+	}
+
+	/** Candidate prefixes for IRI compaction (step 5 in Context#compactIri). */
+	private static class Prefixes {
+		private final Map<Character, Prefixes> children = new HashMap<>();
+		private final List<String> terms = new ArrayList<>(1);
+
+		void add(String term, String iri) {
+			Prefixes node = this;
+			for (int i = 0; i < iri.length(); i++) {
+				node = node.children.computeIfAbsent(iri.charAt(i), c -> new Prefixes());
+			}
+			node.terms.add(term);
+		}
+
+		String compact(String iri) {
+			String result = null;
+			Prefixes node = this;
+			for (int i = 0; i < iri.length() - 1 && node != null; i++) {
+				node = node.children.get(iri.charAt(i));
+				if (node != null) {
+					for (String term : node.terms) {
+						String candidate = term + ":" + iri.substring(i + 1);
+						if (result == null || shortestLeast(candidate, result) < 0) {
+							result = candidate;
+						}
+					}
+				}
+			}
+			return result;
+		}
+
+		private static int shortestLeast(String a, String b) {
+			return a.length() != b.length() ? Integer.compare(a.length(), b.length()) : a.compareTo(b);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.typesafe.config.Config;
+
+import models.AuthorityResource;
+import models.GndOntology;
+import play.Logger;
+
+/**
+ * Labels for linked GND entities (GND ID to preferredName), loaded once from
+ * the JSON lines of a previous conversion, so that adding labels to links does
+ * not need an index request per link (see {@link GndOntology#label(String)}).
+ * The IDs and labels are stored as UTF-8 bytes in a few shared arrays, sorted by
+ * ID. Instances are immutable after construction and can be used from multiple
+ * threads.
+ */
+final class LabelDictionary {
+
+	/** What to use as the label for GND IDs not in the dictionary. */
+	enum Fallback {
+		/** Get the label from the index, like without a dictionary */
+		INDEX,
+		/** Use the GND ID, without a request */
+		ID
+	}
+
+	private final Fallback fallback;
+	private final byte[] ids;
+	private final int[] idOffsets;
+	private final byte[] labels;
+	private final int[] labelOffsets;
+	// entry numbers, sorted by ID
+	private final int[] sorted;
+
+	/**
+	 * @param config The config with `data.labels.jsonlines` and
+	 *            `data.labels.fallback`
+	 * @return The dictionary for the JSON lines configured, or an empty one if
+	 *         none are configured
+	 */
+	static LabelDictionary fromConfig(Config config) {
+		Fallback fallback = Fallback.valueOf(config.getString("data.labels.fallback").toUpperCase());
+		String jsonLines = config.getString("data.labels.jsonlines");
+		try {
+			return jsonLines.isEmpty() ? new LabelDictionary(fallback)
+					: load(new File(jsonLines), fallback);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not load labels from " + jsonLines, e);
+		}
+	}
+
+	/**
+	 * @param jsonLines A file with the JSON lines of a previous conversion, or a
+	 *            directory with such files (ending with .jsonl or .jsonl.gz)
+	 * @param fallback What to use for GND IDs not in the dictionary
+	 * @return The dictionary with the preferred names of all records in the
+	 *         JSON lines
+	 */
+	static LabelDictionary load(File jsonLines, Fallback fallback) throws IOException {
+		File[] files = jsonLines.isDirectory()
+				? jsonLines.listFiles((dir, name) -> name.endsWith(".jsonl") || name.endsWith(".jsonl.gz"))
+				: new File[] { jsonLines };
+		Arrays.sort(files);
+		Entries entries = new Entries();
+		JsonFactory factory = new JsonFactory();
+		for (File file : files) {
+			Logger.info("Loading labels from {}", file);
+			try (InputStream in = open(file);
+					BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					read(factory, line, entries);
+				}
+			}
+		}
+		LabelDictionary result = new LabelDictionary(fallback, entries);
+		Logger.info("Loaded {} labels", result.size());
+		return result;
+	}
+
+	private LabelDictionary(Fallback fallback) {
+		this(fallback, new Entries());
+	}
+
+	private LabelDictionary(Fallback fallback, Entries entries) {
+		this.fallback = fallback;
+		this.ids = Arrays.copyOf(entries.ids.bytes, entries.ids.size);
+		this.idOffsets = Arrays.copyOf(entries.idOffsets.values, entries.idOffsets.size);
+		this.labels = Arrays.copyOf(entries.labels.bytes, entries.labels.size);
+		this.labelOffsets = Arrays.copyOf(entries.labelOffsets.values, entries.labelOffsets.size);
+		this.sorted = sortedUnique(idOffsets.length - 1);
+	}
+
+	/** @return The number of labels in the dictionary */
+	int size() {
+		return sorted.length;
+	}
+
+	/**
+	 * @param iri The IRI of a linked resource
+	 * @return The label for the IRI: the preferred name from the dictionary for
+	 *         GND IRIs, otherwise as in {@link GndOntology#label(String)}
+	 */
+	String label(String iri) {
+		if (!iri.startsWith(AuthorityResource.GND_PREFIX)) {
+			return GndOntology.label(iri);
+		}
+		String id = iri.substring(AuthorityResource.GND_PREFIX.length());
+		int entry = find(id.getBytes(StandardCharsets.UTF_8));
+		if (entry >= 0) {
+			return new String(labels, labelOffsets[entry], labelOffsets[entry + 1] - labelOffsets[entry],
+					StandardCharsets.UTF_8);
+		}
+		Logger.debug("No label for {} in dictionary, using fallback {}", id, fallback);
+		return fallback == Fallback.INDEX ? GndOntology.label(iri) : id;
+	}
+
+	private int find(byte[] id) {
+		int low = 0;
+		int high = sorted.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compare(sorted[middle], id);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return sorted[middle];
+			}
+		}
+		return -1;
+	}
+
+	// compare the ID of the entry to the given ID
+	private int compare(int entry, byte[] id) {
+		return BinaryKeys.compare(this::idByte, idOffsets[entry], idOffsets[entry + 1] - idOffsets[entry],
+				i -> id[(int) i], 0, id.length);
+	}
+
+	private int compareEntries(long a, long b) {
+		int aStart = idOffsets[(int) a];
+		int bStart = idOffsets[(int) b];
+		return BinaryKeys.compare(this::idByte, aStart, idOffsets[(int) a + 1] - aStart, this::idByte, bStart,
+				idOffsets[(int) b + 1] - bStart);
+	}
+
+	private byte idByte(long position) {
+		return ids[(int) position];
+	}
+
+	// entry numbers sorted by ID, of the last entry for each ID, like indexing
+	private int[] sortedUnique(int count) {
+		long[] entries = new long[count];
+		for (int i = 0; i < count; i++) {
+			entries[i] = i;
+		}
+		return Arrays.stream(BinaryKeys.sortedUnique(entries, this::compareEntries)).mapToInt(i -> (int) i)
+				.toArray();
+	}
+
+	// reads the top-level id and preferredName of a record, skipping the rest
+	private static void read(JsonFactory factory, String line, Entries entries) throws IOException {
+		String id = null;
+		String label = null;
+		try (JsonParser parser = factory.createParser(line)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return;
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if (value == JsonToken.VALUE_STRING && field.equals("id")) {
+					id = parser.getText();
+				} else if (value == JsonToken.VALUE_STRING && field.equals("preferredName")) {
+					label = parser.getText();
+				} else {
+					parser.skipChildren();
+				}
+			}
+		}
+		if (id != null && label != null && id.startsWith(AuthorityResource.GND_PREFIX)) {
+			entries.add(id.substring(AuthorityResource.GND_PREFIX.length()), label);
+		}
+	}
+
+	private static InputStream open(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		return file.getName().endsWith(".gz") ? new GZIPInputStream(in) : in;
+	}
+
+	/** The entries as read, in growing arrays. */
+	private static class Entries {
+		final Bytes ids = new Bytes();
+		final Ints idOffsets = new Ints();
+		final Bytes labels = new Bytes();
+		final Ints labelOffsets = new Ints();
+
+		Entries() {
+			idOffsets.add(0);
+			labelOffsets.add(0);
+		}
+
+		void add(String id, String label) {
+			ids.add(id.getBytes(StandardCharsets.UTF_8));
+			idOffsets.add(ids.size);
+			labels.add(label.getBytes(StandardCharsets.UTF_8));
+			labelOffsets.add(labels.size);
+		}
+	}
+
+	private static class Bytes {
+		byte[] bytes = new byte[1024];
+		int size;
+
+		void add(byte[] added) {
+			if (size + added.length > bytes.length) {
+				long grown = Math.max(size + added.length, bytes.length * 2L);
+				bytes = Arrays.copyOf(bytes, (int) Math.min(grown, Integer.MAX_VALUE - 8));
+			}
+			System.arraycopy(added, 0, bytes, size, added.length);
+			size += added.length;
+		}
+	}
+
+	private static class Ints {
+		int[] values = new int[1024];
+		int size;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, (int) Math.min(values.length * 2L, Integer.MAX_VALUE - 8));
+			}
+			values[size++] = value;
+		}
+	}
+}
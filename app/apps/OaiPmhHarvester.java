@@ -0,0 +1,287 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Harvests records with the OAI-PMH ListRecords verb, following the resumption
+ * tokens page by page. Each page is parsed while it is being received, and
+ * written to the output when it is complete, so memory use does not depend on
+ * the size of the harvested time window. A page that fails is tried again,
+ * with the same resumption token, waiting twice as long before each try. A
+ * page fails if the request times out, if the server asks to retry later, or
+ * if the response is an OAI-PMH error other than `noRecordsMatch`.
+ */
+final class OaiPmhHarvester {
+
+	private static final String RDF_TAG = "RDF";
+	private static final String ENTITY_TAG = "Description";
+	private static final String TOKEN_TAG = "resumptionToken";
+	private static final String ERROR_TAG = "error";
+	private static final String NO_RECORDS_MATCH = "noRecordsMatch";
+
+	private final String baseUrl;
+	private final String metadataPrefix;
+	private final String set;
+	private final int tries;
+	private final long retryWait;
+	private final int timeout;
+
+	/**
+	 * An OAI-PMH error response, e.g. for a bad resumption token, which is sent
+	 * with HTTP status 200.
+	 */
+	static final class ErrorResponse extends IOException {
+		private static final long serialVersionUID = 1L;
+		/** The OAI-PMH error code, e.g. `badResumptionToken` */
+		final String code;
+
+		ErrorResponse(String code, String message) {
+			super("OAI-PMH error " + code + ": " + message);
+			this.code = code;
+		}
+	}
+
+	/** A response asking to retry the request later. */
+	static final class RetryLater extends IOException {
+		private static final long serialVersionUID = 1L;
+		/** The time to wait before retrying, in milliseconds */
+		final long wait;
+
+		RetryLater(String url, long wait) {
+			super(String.format("Server asks to retry %s after %s s", url, wait / 1000));
+			this.wait = wait;
+		}
+	}
+
+	/**
+	 * @param baseUrl The base URL of the OAI-PMH server
+	 * @param metadataPrefix The metadata format to harvest, e.g. `RDFxml`
+	 * @param set The set to harvest, e.g. `authorities`
+	 */
+	OaiPmhHarvester(String baseUrl, String metadataPrefix, String set) {
+		this(baseUrl, metadataPrefix, set, 1, 0, 60000);
+	}
+
+	/**
+	 * @param baseUrl The base URL of the OAI-PMH server
+	 * @param metadataPrefix The metadata format to harvest, e.g. `RDFxml`
+	 * @param set The set to harvest, e.g. `authorities`
+	 * @param tries The number of times to try each page
+	 * @param retryWait The time to wait before the first retry of a page, in
+	 *            milliseconds, doubled for each further retry, or as long as the
+	 *            server asks with `Retry-After`, if that is longer
+	 * @param timeout The timeout for connecting to the server, and for each
+	 *            read of a response, in milliseconds
+	 */
+	OaiPmhHarvester(String baseUrl, String metadataPrefix, String set, int tries, long retryWait, int timeout) {
+		this.baseUrl = baseUrl;
+		this.metadataPrefix = metadataPrefix;
+		this.set = set;
+		this.tries = Math.max(1, tries);
+		this.retryWait = retryWait;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param retryWait The time to wait before the first retry
+	 * @param tried The number of tries so far
+	 * @return The time to wait before the next try, doubled for each try
+	 */
+	static long backoff(long retryWait, int tried) {
+		return retryWait << Math.min(Math.max(0, tried - 1), 20);
+	}
+
+	/**
+	 * @param from The start of the time window, in UTC, as expected by OAI-PMH
+	 * @param until The end of the time window, in UTC, as expected by OAI-PMH
+	 * @param out The writer to write the `Description` elements to
+	 * @return The number of pages harvested
+	 */
+	int harvest(String from, String until, Writer out) throws IOException, XMLStreamException {
+		String url = String.format("%s?verb=ListRecords&from=%s&until=%s&set=%s&metadataPrefix=%s", baseUrl, from,
+				until, set, metadataPrefix);
+		int pages = 0;
+		while (url != null) {
+			StringWriter page = new StringWriter();
+			String token = harvestPage(url, page);
+			out.write(page.toString());
+			pages++;
+			System.out.printf("Harvested page %s, resumptionToken: %s\n", pages, token);
+			url = token == null || token.isEmpty() ? null
+					: String.format("%s?verb=ListRecords&resumptionToken=%s", baseUrl,
+							URLEncoder.encode(token, StandardCharsets.UTF_8.name()));
+		}
+		out.flush();
+		return pages;
+	}
+
+	// Buffers the page, so that a failed try doesn't leave a partial page in the output
+	private String harvestPage(String url, StringWriter page) throws IOException, XMLStreamException {
+		for (int tried = 1;; tried++) {
+			try (InputStream in = open(url)) {
+				return writeRdfDescriptions(in, page);
+			} catch (IOException | XMLStreamException e) {
+				if (tried >= tries) {
+					throw e;
+				}
+				long wait = e instanceof RetryLater ? Math.max(((RetryLater) e).wait, backoff(retryWait, tried))
+						: backoff(retryWait, tried);
+				System.err.printf("Try %s of %s to get %s failed: %s, trying again in %s s\n", tried, tries, url, e,
+						wait / 1000);
+				page.getBuffer().setLength(0);
+				try {
+					Thread.sleep(wait);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting to retry " + url);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the `Description` elements of a response to the given writer, each
+	 * top-level one with the namespaces declared on its enclosing `RDF` element.
+	 *
+	 * @param page The OAI-PMH response
+	 * @param out The writer to write the `Description` elements to
+	 * @return The resumption token of the response, or null if it has none
+	 * @throws ErrorResponse If the response is an OAI-PMH error other than
+	 *             `noRecordsMatch`
+	 */
+	static String writeRdfDescriptions(InputStream page, Writer out) throws XMLStreamException, ErrorResponse {
+		XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+		XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+		XMLEventWriter eventWriter = null;
+		XMLEventReader eventReader = XMLInputFactory.newInstance()
+				.createXMLEventReader(new InputStreamReader(page, StandardCharsets.UTF_8));
+		List<Namespace> namespaces = new ArrayList<>();
+		int nested = 0;
+		StringBuilder token = null;
+		boolean inToken = false;
+		String errorCode = null;
+		String errorText = null;
+		while (eventReader.hasNext()) {
+			try {
+				XMLEvent nextEvent = eventReader.nextEvent();
+				if (nextEvent.isStartElement()) {
+					StartElement startElement = nextEvent.asStartElement();
+					String name = startElement.getName().getLocalPart();
+					if (eventWriter == null && name.equals(TOKEN_TAG)) {
+						token = new StringBuilder();
+						inToken = true;
+						continue;
+					} else if (eventWriter == null && name.equals(ERROR_TAG)) {
+						Attribute code = startElement.getAttributeByName(new QName("code"));
+						errorCode = code == null ? "" : code.getValue();
+						errorText = "";
+						continue;
+					} else if (name.equals(RDF_TAG)) {
+						namespaces.clear();
+						startElement.getNamespaces().forEachRemaining(namespaces::add);
+						eventWriter = outputFactory.createXMLEventWriter(out);
+						continue;
+					} else if (name.equals(ENTITY_TAG) && nested++ == 0) {
+						QName descriptionName = new QName(startElement.getName().getNamespaceURI(), name,
+								startElement.getName().getPrefix());
+						nextEvent = eventFactory.createStartElement(descriptionName, startElement.getAttributes(),
+								namespaces.iterator());
+					}
+				} else if (nextEvent.isCharacters() && eventWriter == null) {
+					if (inToken) {
+						token.append(nextEvent.asCharacters().getData());
+					} else if (errorText != null) {
+						errorText += nextEvent.asCharacters().getData();
+					}
+				} else if (nextEvent.isEndElement()) {
+					String name = ((EndElement) nextEvent).getName().getLocalPart();
+					if (name.equals(ENTITY_TAG)) {
+						nested--;
+					} else if (name.equals(RDF_TAG)) {
+						eventWriter.close();
+						eventWriter = null;
+					} else if (eventWriter == null && name.equals(TOKEN_TAG)) {
+						inToken = false;
+					} else if (eventWriter == null && name.equals(ERROR_TAG)) {
+						if (!errorCode.equals(NO_RECORDS_MATCH)) {
+							throw new ErrorResponse(errorCode, errorText.trim());
+						}
+						// an empty time window
+						System.out.println("OAI-PMH error " + errorCode + ": " + errorText.trim());
+						errorText = null;
+					}
+				}
+				if (eventWriter != null) {
+					eventWriter.add(nextEvent);
+				}
+			} catch (XMLStreamException e) {
+				System.err.printf("XMLStreamException, skipping XMLEvent. \n");
+				e.printStackTrace();
+				try {
+					eventReader.next();
+				} catch (RuntimeException skipFailed) {
+					// can't skip, e.g. if the response broke off: fail, so the page can be tried again
+					throw e;
+				}
+			}
+		}
+		return token == null ? null : token.toString().trim();
+	}
+
+	// Like the OCLC harvester, but waiting if the server asks to retry later counts as a try; decompress if needed
+	private InputStream open(String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setConnectTimeout(timeout);
+		connection.setReadTimeout(timeout);
+		connection.setRequestProperty("User-Agent", "OAIHarvester/2.0");
+		connection.setRequestProperty("Accept-Encoding", "gzip, deflate, identity");
+		int responseCode = connection.getResponseCode();
+		if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+			int retryAfter = connection.getHeaderFieldInt("Retry-After", -1);
+			if (retryAfter > 0) {
+				connection.disconnect();
+				throw new RetryLater(url, retryAfter * 1000L);
+			}
+		}
+		if (responseCode != HttpURLConnection.HTTP_OK) {
+			connection.disconnect();
+			throw new IOException(String.format("OAI-PMH request %s failed: %s", url, responseCode));
+		}
+		String encoding = connection.getContentEncoding();
+		InputStream in = connection.getInputStream();
+		if ("gzip".equals(encoding)) {
+			return new GZIPInputStream(in);
+		} else if ("deflate".equals(encoding)) {
+			return new InflaterInputStream(in);
+		}
+		return in;
+	}
+}
@@ -0,0 +1,308 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import static models.AuthorityResource.ELEMENTSET;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+
+import com.typesafe.config.Config;
+
+import apps.ConversionMetrics.Stage;
+import models.AuthorityResource;
+import play.Logger;
+
+/**
+ * The rules for preprocessing the statements of a record before conversion to
+ * JSON-LD (see {@link Convert#preprocess(Model, String, Set)}), compiled from
+ * the configuration and the context once. Each statement is handled with a
+ * single lookup of the rule for its predicate. Instances can be used from
+ * multiple threads.
+ */
+final class PreprocessRules {
+
+	private static final String GND = ELEMENTSET + "gnd#";
+	private static final String ACADEMIC_DEGREE = GND + "academicDegree";
+	private static final String DATE_OF_BIRTH = GND + "dateOfBirth";
+	private static final String DATE_OF_DEATH = GND + "dateOfDeath";
+	private static final String PREFERRED_NAME = GND + "preferredName";
+	private static final String VARIANT_NAME = GND + "variantName";
+	private static final String PREFERRED_NAME_FOR = PREFERRED_NAME + "For";
+	private static final String VARIANT_NAME_FOR = VARIANT_NAME + "For";
+	private static final String SAME_AS_OWL = "http://www.w3.org/2002/07/owl#sameAs";
+	private static final String SAME_AS_SCHEMA = "http://schema.org/sameAs";
+	private static final String RDF_SYNTAX = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+	private static final String TYPE = RDF_SYNTAX + "type";
+	private static final String LABEL = "http://www.w3.org/2000/01/rdf-schema#label";
+	private static final String COLLECTION = ELEMENTSET + "dnb#isDescribedIn";
+	private static final String DEPRECATED_URI = ELEMENTSET + "dnb#deprecatedUri";
+	private static final String DESCRIBED_BY = "http://www.w3.org/2007/05/powder-s#describedby";
+
+	private enum Action {
+		DEPRECATED_URI, SAME_AS, DESCRIBED_BY, ACADEMIC_DEGREE, DATE, NAME, TYPE, OTHER
+	}
+
+	private static class Rule {
+		final Action action;
+		// the generalized predicate for names, see https://github.com/hbz/lobid-gnd/issues/3
+		final String general;
+		// predicates not in the context (and not RDF syntax) are removed
+		final boolean known;
+
+		Rule(Action action, String general, boolean known) {
+			this.action = action;
+			this.general = general;
+			this.known = known;
+		}
+	}
+
+	private final Set<String> contextIris;
+	private final String superclass;
+	// full type IRI -> full IRI of the second level type
+	private final Map<String, String> secondLevelTypes = new HashMap<>();
+	private final CollectionPrefixes collections = new CollectionPrefixes();
+	private final List<String> collectionProperties;
+	private final Map<String, Rule> rules = new ConcurrentHashMap<>();
+	private final LabelDictionary labels;
+
+	/**
+	 * @param config The config with `types`, `collections`, `data.superclass`
+	 *            and `data.labels`
+	 * @param contextDocument Our context document
+	 */
+	PreprocessRules(Config config, Map<String, Object> contextDocument) {
+		this.contextIris = new HashSet<>();
+		collectStrings(contextDocument.get("@context"), contextIris);
+		this.superclass = config.getString("data.superclass");
+		config.getObject("types").unwrapped()
+				.forEach((type, secondLevel) -> secondLevelTypes.put(GND + type, GND + secondLevel));
+		this.collectionProperties = config.getStringList("collections.properties");
+		this.labels = LabelDictionary.fromConfig(config);
+		config.getObject("collections").unwrapped().forEach((prefix, details) -> {
+			if (!prefix.equals("properties")) {
+				@SuppressWarnings("unchecked")
+				List<String> list = (List<String>) details;
+				collections.add(prefix, list);
+			}
+		});
+	}
+
+	/**
+	 * @param model The model to preprocess, modified in place
+	 * @param id The GND ID of the record
+	 * @param deprecated Collects IDs deprecated by the record
+	 * @return The preprocessed model
+	 */
+	Model apply(Model model, String id, Set<String> deprecated) {
+		String resource = AuthorityResource.GND_PREFIX + id;
+		Set<Statement> toRemove = new HashSet<>();
+		Set<Statement> toAdd = new HashSet<>();
+		model.listStatements().forEachRemaining(statement -> {
+			String s = statement.getSubject().toString();
+			String p = statement.getPredicate().toString();
+			RDFNode o = statement.getObject();
+			Rule rule = rules.computeIfAbsent(p, this::compile);
+			boolean removed = false;
+			if (o.isURIResource()) {
+				String object = o.toString();
+				if (s.equals(object)) { // remove self-ref statements
+					toRemove.add(statement);
+					removed = true;
+				} else if (rule.action == Action.SAME_AS) {
+					// Add `collection` details for `sameAs`
+					// See https://github.com/hbz/lobid-gnd/issues/69
+					toAdd.add(model.createStatement(model.createResource(object), model.createProperty(COLLECTION),
+							model.createResource(collectionId(object))));
+					toAdd.addAll(collectionDetails(object, model));
+					// owl->schema:sameAs,https://github.com/hbz/lobid-gnd/issues/185
+					toRemove.add(statement);
+					removed = true;
+					toAdd.add(model.createStatement(statement.getSubject(), model.createProperty(SAME_AS_SCHEMA), o));
+				} else if (rule.action != Action.DESCRIBED_BY) {
+					// Add `label` statement for any link
+					// See https://github.com/hbz/lobid-gnd/issues/85
+					// See https://github.com/hbz/lobid-gnd/issues/24
+					long start = System.nanoTime();
+					String label = labels.label(object);
+					ConversionMetrics.time(Stage.LABELS, start);
+					toAdd.add(model.createLiteralStatement(model.createResource(object), model.createProperty(LABEL),
+							label));
+				}
+			}
+			boolean handled = false;
+			switch (rule.action) {
+			case DEPRECATED_URI:
+				if (!s.equals(o.toString())) {
+					deprecated.add(o.toString().substring(AuthorityResource.GND_PREFIX.length()));
+				}
+				break;
+			case ACADEMIC_DEGREE:
+				if (o.isURIResource()) {
+					// See https://github.com/hbz/lobid-gnd/commit/2cb4b9b
+					replaceObjectLiteral(model, statement, o.toString(), toRemove, toAdd);
+					handled = true;
+				}
+				break;
+			case DATE:
+				if (o.isLiteral() && o.asLiteral().getDatatypeURI() != null) {
+					// See https://github.com/hbz/lobid-gnd/commit/2cb4b9b
+					replaceObjectLiteral(model, statement, o.asLiteral().getString(), toRemove, toAdd);
+					handled = true;
+				}
+				break;
+			case SAME_AS:
+				if (o.isLiteral() && o.asLiteral().getDatatypeURI() != null) {
+					// See https://github.com/hbz/lobid-gnd/commit/00ca2a6
+					toRemove.add(statement);
+					// owl->schema:sameAs,https://github.com/hbz/lobid-gnd/issues/185
+					toAdd.add(model.createStatement(statement.getSubject(), model.createProperty(SAME_AS_SCHEMA),
+							model.createResource(o.asLiteral().getString())));
+					handled = true;
+				}
+				break;
+			case NAME:
+				// See https://github.com/hbz/lobid-gnd/issues/3
+				toRemove.add(statement);
+				RDFNode object = o.asLiteral().getLanguage().isEmpty() ? o
+						: model.createLiteral(o.asLiteral().getValue().toString());
+				toAdd.add(model.createStatement(statement.getSubject(), model.createProperty(rule.general), object));
+				handled = true;
+				break;
+			case TYPE:
+				if (o.toString().startsWith(GND)) {
+					// https://github.com/hbz/lobid-gnd/issues/1#issuecomment-312597639
+					if (s.equals(resource)) {
+						toAdd.add(model.createStatement(statement.getSubject(), statement.getPredicate(),
+								model.createResource(superclass)));
+					}
+					// See https://github.com/hbz/lobid-gnd/issues/2
+					String newType = secondLevelTypes.get(o.toString());
+					if (newType != null) {
+						toAdd.add(model.createStatement(statement.getSubject(), statement.getPredicate(),
+								model.createResource(newType)));
+					}
+					handled = true;
+				}
+				break;
+			default:
+				break;
+			}
+			if (!handled && !removed && !rule.known) {
+				Logger.error("Skipping statement, predicate not found in context: {}", statement);
+				toRemove.add(statement);
+			}
+		});
+		toRemove.stream().forEach(e -> model.remove(e));
+		toAdd.stream().forEach(e -> model.add(e));
+		return model;
+	}
+
+	/**
+	 * @param id The IRI of a linked resource
+	 * @return The ID of the collection describing the resource
+	 */
+	String collectionId(String id) {
+		List<String> details = collections.get(id);
+		if (details != null) {
+			return details.get(0);
+		}
+		URI uri = URI.create(id);
+		return uri.getScheme() + "://" + uri.getHost();
+	}
+
+	private List<Statement> collectionDetails(String resourceId, Model model) {
+		List<String> details = collections.get(resourceId);
+		if (details == null) {
+			Logger.warn("No collection details found for {}", resourceId);
+			return Collections.emptyList();
+		}
+		List<Statement> result = new ArrayList<>(collectionProperties.size());
+		for (int i = 0; i < collectionProperties.size(); i++) {
+			result.add(model.createStatement(model.createResource(details.get(0)),
+					model.createProperty(collectionProperties.get(i)), model.createLiteral(details.get(i + 1))));
+		}
+		return result;
+	}
+
+	private Rule compile(String p) {
+		boolean known = p.startsWith(RDF_SYNTAX) || contextIris.contains(p);
+		if (p.equals(DEPRECATED_URI)) {
+			return new Rule(Action.DEPRECATED_URI, null, known);
+		} else if (p.equals(SAME_AS_OWL)) {
+			return new Rule(Action.SAME_AS, null, known);
+		} else if (p.equals(DESCRIBED_BY)) {
+			return new Rule(Action.DESCRIBED_BY, null, known);
+		} else if (p.equals(ACADEMIC_DEGREE)) {
+			return new Rule(Action.ACADEMIC_DEGREE, null, known);
+		} else if (p.equals(DATE_OF_BIRTH) || p.equals(DATE_OF_DEATH)) {
+			return new Rule(Action.DATE, null, known);
+		} else if (p.startsWith(PREFERRED_NAME_FOR) || p.startsWith(VARIANT_NAME_FOR)) {
+			String general = p.equals(PREFERRED_NAME_FOR) || p.equals(VARIANT_NAME_FOR) ? p
+					: p.startsWith(PREFERRED_NAME_FOR) ? PREFERRED_NAME : VARIANT_NAME;
+			return new Rule(Action.NAME, general, known);
+		} else if (p.equals(TYPE)) {
+			return new Rule(Action.TYPE, null, known);
+		}
+		return new Rule(Action.OTHER, null, known);
+	}
+
+	private static void replaceObjectLiteral(Model model, Statement statement, String newObjectLiteral,
+			Set<Statement> toRemove, Set<Statement> toAdd) {
+		toRemove.add(statement);
+		toAdd.add(model.createStatement(statement.getSubject(), statement.getPredicate(),
+				model.createLiteral(newObjectLiteral)));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void collectStrings(Object json, Set<String> result) {
+		if (json instanceof String) {
+			result.add((String) json);
+		} else if (json instanceof Map) {
+			((Map<String, Object>) json).forEach((key, value) -> {
+				result.add(key);
+				collectStrings(value, result);
+			});
+		} else if (json instanceof List) {
+			((List<Object>) json).forEach(value -> collectStrings(value, result));
+		}
+	}
+
+	/** Collection details by IRI prefix. */
+	private static class CollectionPrefixes {
+		private final Map<Character, CollectionPrefixes> children = new HashMap<>();
+		private List<String> details;
+
+		void add(String prefix, List<String> details) {
+			CollectionPrefixes node = this;
+			for (int i = 0; i < prefix.length(); i++) {
+				node = node.children.computeIfAbsent(prefix.charAt(i), c -> new CollectionPrefixes());
+			}
+			node.details = details;
+		}
+
+		// details for the longest prefix of the IRI, or null
+		List<String> get(String iri) {
+			List<String> result = null;
+			CollectionPrefixes node = this;
+			for (int i = 0; i < iri.length() && node != null; i++) {
+				node = node.children.get(iri.charAt(i));
+				if (node != null && node.details != null) {
+					result = node.details;
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import java.io.StringReader;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import models.AuthorityResource;
+
+/**
+ * Picks up the GND ID of a record from its XML events, without parsing the
+ * RDF: the text of the `gndIdentifier` element directly in the top-level
+ * `Description`, if that has an `rdf:about`. This is the ID the record is
+ * converted with (see {@link Convert.ToAuthorityJson.RecordStream}). Used to
+ * look up unchanged records before converting them (see
+ * {@link IncrementalConversion}), and to deduplicate updates (see
+ * {@link UpdateDeduplication}).
+ */
+final class RecordId {
+
+	private static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+	private static final QName DESCRIPTION = new QName(RDF, "Description");
+	private static final QName ABOUT = new QName(RDF, "about");
+	private static final QName RESOURCE = new QName(RDF, "resource");
+	private static final QName GND_IDENTIFIER = new QName(AuthorityResource.ELEMENTSET + "gnd#", "gndIdentifier");
+	// the JDK factory is not safe to share between the conversion threads
+	private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY = ThreadLocal
+			.withInitial(XMLInputFactory::newInstance);
+
+	// the depth below the top-level Description, or -1 before it
+	private int depth = -1;
+	private StringBuilder text;
+	private boolean done;
+	private String id = "";
+
+	/**
+	 * @param record The RDF/XML of a single record
+	 * @return The GND ID of the record, or an empty string if it has none or
+	 *         is not well-formed
+	 */
+	static String of(String record) {
+		RecordId id = new RecordId();
+		try {
+			XMLEventReader reader = INPUT_FACTORY.get().createXMLEventReader(new StringReader(record));
+			try {
+				while (reader.hasNext() && !id.add(reader.nextEvent())) {
+					// read up to the ID only
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			return "";
+		}
+		return id.id();
+	}
+
+	/**
+	 * @param event The next event of the record
+	 * @return true if the ID is complete: found, or not in the top-level
+	 *         `Description`, so the following events can be skipped
+	 */
+	boolean add(XMLEvent event) {
+		if (done) {
+			return true;
+		}
+		if (event.isStartElement()) {
+			StartElement element = event.asStartElement();
+			if (depth < 0) {
+				if (element.getName().equals(DESCRIPTION)) {
+					// without a URI, the record's ID is not the one of its top-level Description
+					done = element.getAttributeByName(ABOUT) == null;
+					depth = 0;
+				}
+			} else {
+				depth++;
+				boolean literal = depth == 1 && element.getName().equals(GND_IDENTIFIER)
+						&& element.getAttributeByName(RESOURCE) == null;
+				text = literal ? new StringBuilder() : null;
+			}
+		} else if (event.isCharacters() && text != null) {
+			text.append(event.asCharacters().getData());
+		} else if (event.isEndElement() && depth >= 0) {
+			if (depth == 0) {
+				done = true;
+			} else if (depth == 1 && text != null) {
+				id = text.toString();
+				done = true;
+			}
+			depth--;
+		}
+		return done;
+	}
+
+	/** @return The ID, or an empty string if none was found (yet) */
+	String id() {
+		return id;
+	}
+}
@@ -0,0 +1,263 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A file of binary keys and values, sorted by key and memory-mapped for
+ * lookups, used for data that is too large to keep on the heap (see
+ * {@link EntityFactsStore} and {@link IncrementalConversion}). Instances are
+ * immutable and can be used from multiple threads.
+ *
+ * The file contains a header (magic number, number of entries, position of the
+ * index, position of the metadata), the entries in the order they were added
+ * (key length, key, value length, value), the index (the positions of the
+ * entries, sorted by key), and the metadata (length, content).
+ */
+final class SortedKeyValueFile {
+
+	private static final int MAGIC = 0x534b5631; // SKV1
+	private static final int COUNT = 4;
+	private static final int INDEX = COUNT + 8;
+	private static final int METADATA = INDEX + 8;
+	private static final int HEADER = METADATA + 8;
+	// a single mapping can't be larger than Integer.MAX_VALUE bytes
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+	private final MappedByteBuffer[] segments;
+	private final long count;
+	private final long index;
+	private final long metadata;
+
+	/**
+	 * Writes a new file. Only the positions of the entries are kept in memory, to
+	 * sort the entries when the writer is closed. If an entry with the same key
+	 * is added multiple times, the last one is used.
+	 */
+	static final class Writer implements Closeable {
+
+		private final Path file;
+		private final DataOutputStream out;
+		private long position;
+		private long[] positions = new long[1024];
+		private int size;
+		private byte[] metadata = new byte[0];
+		private long count = -1;
+		private boolean closed;
+
+		/**
+		 * @param file The file to create
+		 */
+		Writer(Path file) throws IOException {
+			this.file = file;
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+			out.write(new byte[HEADER]);
+			position = HEADER;
+		}
+
+		/**
+		 * @param metadata Data about the file as a whole, written on close, see
+		 *            {@link SortedKeyValueFile#metadata()}
+		 */
+		void metadata(byte[] metadata) {
+			this.metadata = metadata;
+		}
+
+		/**
+		 * @param key The key, at most 65535 bytes
+		 * @param value The value
+		 */
+		void add(byte[] key, byte[] value) throws IOException {
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, (int) Math.min(positions.length * 2L, Integer.MAX_VALUE - 8));
+			}
+			positions[size++] = position;
+			out.writeShort(key.length);
+			out.write(key);
+			out.writeInt(value.length);
+			out.write(value);
+			position += 2 + key.length + 4 + value.length;
+		}
+
+		/** Sort the entries and write the index and the metadata. */
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			out.close();
+			SortedKeyValueFile entries = open(file, position);
+			long[] sorted = BinaryKeys.sortedUnique(Arrays.copyOf(positions, size), entries::compareEntries);
+			positions = null;
+			try (DataOutputStream index = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND)))) {
+				for (long entry : sorted) {
+					index.writeLong(entry);
+				}
+				index.writeInt(metadata.length);
+				index.write(metadata);
+			}
+			try (RandomAccessFile header = new RandomAccessFile(file.toFile(), "rw")) {
+				header.writeInt(MAGIC);
+				header.writeLong(sorted.length);
+				header.writeLong(position);
+				header.writeLong(position + sorted.length * 8L);
+			}
+			count = sorted.length;
+		}
+
+		/**
+		 * @return The number of entries written, one per key, or -1 if the
+		 *         writer is not closed yet
+		 */
+		long size() {
+			return count;
+		}
+	}
+
+	/**
+	 * @param file A file created with a {@link Writer}
+	 * @return The file for lookups
+	 */
+	static SortedKeyValueFile open(Path file) throws IOException {
+		return open(file, -1);
+	}
+
+	// with a size, maps only the entries, for sorting them
+	private static SortedKeyValueFile open(Path file, long entriesSize) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = entriesSize >= 0 ? entriesSize : channel.size();
+			MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+			for (int i = 0; i < segments.length; i++) {
+				long start = (long) i << SEGMENT_BITS;
+				segments[i] = channel.map(MapMode.READ_ONLY, start, Math.min(SEGMENT_MASK + 1, size - start));
+			}
+			return new SortedKeyValueFile(file, segments, entriesSize < 0);
+		}
+	}
+
+	private SortedKeyValueFile(Path file, MappedByteBuffer[] segments, boolean complete) {
+		this.segments = segments;
+		if (complete && (segments.length == 0 || segments[0].getInt(0) != MAGIC)) {
+			throw new IllegalArgumentException("Not a sorted key-value file: " + file);
+		}
+		this.count = segments[0].getLong(COUNT);
+		this.index = segments[0].getLong(INDEX);
+		this.metadata = segments[0].getLong(METADATA);
+	}
+
+	/** @return The metadata passed when writing the file */
+	byte[] metadata() {
+		return read(metadata + 4, readInt(metadata));
+	}
+
+	/** @return The number of entries (with different keys) in the file */
+	long size() {
+		return count;
+	}
+
+	/**
+	 * @param key The key to find
+	 * @return The number of the entry with the key in the sorted entries, or -1
+	 *         if there is no entry for the key
+	 */
+	long find(byte[] key) {
+		long low = 0;
+		long high = count - 1;
+		while (low <= high) {
+			long middle = (low + high) >>> 1;
+			int comparison = compareKey(entry(middle), key);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param key The key
+	 * @return The value for the key, or null if there is no entry for the key
+	 */
+	byte[] get(byte[] key) {
+		long entry = find(key);
+		return entry < 0 ? null : value(entry);
+	}
+
+	/**
+	 * @param entry The number of an entry in the sorted entries
+	 * @return The key of the entry
+	 */
+	byte[] key(long entry) {
+		long position = entry(entry);
+		return read(position + 2, readShort(position));
+	}
+
+	/**
+	 * @param entry The number of an entry in the sorted entries
+	 * @return The value of the entry
+	 */
+	byte[] value(long entry) {
+		long position = entry(entry);
+		long value = position + 2 + readShort(position);
+		return read(value + 4, readInt(value));
+	}
+
+	private long entry(long number) {
+		return ByteBuffer.wrap(read(index + number * 8, 8)).getLong();
+	}
+
+	// compare the key of the entry at the position to the given key
+	private int compareKey(long position, byte[] key) {
+		return BinaryKeys.compare(this::byteAt, position + 2, readShort(position), i -> key[(int) i], 0, key.length);
+	}
+
+	private int compareEntries(long a, long b) {
+		return BinaryKeys.compare(this::byteAt, a + 2, readShort(a), this::byteAt, b + 2, readShort(b));
+	}
+
+	private byte byteAt(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+	}
+
+	private int readShort(long position) {
+		return ((byteAt(position) & 0xff) << 8) | (byteAt(position + 1) & 0xff);
+	}
+
+	private int readInt(long position) {
+		return ByteBuffer.wrap(read(position, 4)).getInt();
+	}
+
+	// absolute reads on duplicates, since the buffer positions are shared
+	private byte[] read(long position, int length) {
+		byte[] result = new byte[length];
+		int done = 0;
+		while (done < length) {
+			long current = position + done;
+			ByteBuffer segment = segments[(int) (current >>> SEGMENT_BITS)].duplicate();
+			segment.position((int) (current & SEGMENT_MASK));
+			int chunk = Math.min(length - done, segment.remaining());
+			segment.get(result, done, chunk);
+			done += chunk;
+		}
+		return result;
+	}
+}
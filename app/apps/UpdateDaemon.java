@@ -0,0 +1,99 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import static apps.Convert.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import play.Logger;
+
+/**
+ * Gets, converts, validates and indexes the updates every
+ * `data.updates.daemon.interval` minutes, in one resident JVM, instead of
+ * starting new JVMs for each step every hour (see cron.sh). The Elasticsearch
+ * client, the ontology and the labels are loaded once and stay warm between
+ * runs. Like cron.sh, the updates are indexed into the test index first, and
+ * only if that index is valid into the productive index.
+ */
+public class UpdateDaemon {
+
+	public static void main(String[] args) throws InterruptedException {
+		long interval = Convert.CONFIG.getLong("data.updates.daemon.interval");
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		Logger.info("Starting update daemon, running every {} minutes", interval);
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				run();
+			} catch (Throwable t) {
+				// keep the daemon running; data.updates.last was not advanced, so the next run gets the updates again
+				Logger.error("Update failed", t);
+			}
+		}, 0, interval, TimeUnit.MINUTES);
+		Runtime.getRuntime().addShutdownHook(new Thread(scheduler::shutdown));
+		scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+	}
+
+	static void run() throws IOException, InterruptedException {
+		ZonedDateTime start = lastSuccessfulUpdate(new File(config("data.updates.last")));
+		Logger.info("Getting updates since {}", start);
+		ZonedDateTime end = ConvertUpdates.getUpdatesAndConvertOnce(start);
+		if (!ConvertUpdates.hasUpdates()) {
+			Logger.info("No updates since {}", start);
+			ConvertUpdates.writeLastSuccessfulUpdate(start, end);
+			return;
+		}
+		String testIndex = config("data.updates.daemon.test");
+		String prodIndex = config("data.updates.daemon.prod");
+		index(testIndex);
+		if (!validate(testIndex)) {
+			Logger.error("Not indexing updates into {}, validation of {} failed", prodIndex, testIndex);
+			return;
+		}
+		index(prodIndex);
+		// only now, so updates that fail before reaching the prod index are harvested again at the next run
+		ConvertUpdates.writeLastSuccessfulUpdate(start, end);
+		validate(prodIndex);
+	}
+
+	/**
+	 * @param file The file with the time of the last successful update
+	 * @return The time in the last line of the file, like `tail -n1` in cron.sh
+	 */
+	static ZonedDateTime lastSuccessfulUpdate(File file) throws IOException {
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		for (int i = lines.size() - 1; i >= 0; i--) {
+			if (!lines.get(i).trim().isEmpty()) {
+				return ZonedDateTime.parse(lines.get(i).trim());
+			}
+		}
+		throw new IllegalStateException("No last successful update in " + file);
+	}
+
+	private static void index(String indexName) throws IOException {
+		Index.indexUpdates(indexName, Index.client, false);
+	}
+
+	// Runs the configured validation command with the index name, e.g. checkCompactedProperties.sh
+	private static boolean validate(String indexName) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>(Convert.CONFIG.getStringList("data.updates.daemon.validate"));
+		if (command.isEmpty()) {
+			return true;
+		}
+		command.add(indexName);
+		int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+		if (exitCode != 0) {
+			Logger.error("Validation of index {} failed: {} exited with {}", indexName, command, exitCode);
+		}
+		return exitCode == 0;
+	}
+}
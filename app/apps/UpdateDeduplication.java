@@ -0,0 +1,141 @@
+/* Copyright 2026 hbz. Licensed under the EPL 2.0 */
+
+package apps;
+
+import static models.AuthorityResource.GND_PREFIX;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Keeps only the most recent version of each record in a batch of updates (see
+ * {@link ConvertUpdates}), and drops the records deprecated by another record
+ * in the batch, since these are deleted after indexing anyway (see
+ * {@link Index}). The input is read twice: first to find the last version of
+ * each record and the deprecated IDs, then to write the records to keep. Only
+ * the IDs are held in memory, not the records.
+ */
+final class UpdateDeduplication {
+
+	private static final Pattern DEPRECATED_URI = Pattern
+			.compile("deprecatedUri[^>]*>\\s*" + Pattern.quote(GND_PREFIX) + "([^<\\s]+)");
+
+	/** The number of records in the input */
+	long records;
+	/** The number of older versions of records that were dropped */
+	long duplicates;
+	/** The number of records that were dropped because they are deprecated */
+	long deprecated;
+
+	/**
+	 * @param in The updates, top-level `Description` elements in an `RDF` element
+	 * @param out The file to write the records to keep to, in the same format
+	 */
+	void deduplicate(File in, File out) throws IOException, XMLStreamException {
+		Map<String, Long> lastVersion = new HashMap<>();
+		Set<String> deprecatedIds = new HashSet<>();
+		long[] position = { 0 };
+		forEachRecord(in, (id, record) -> {
+			if (!id.isEmpty()) {
+				lastVersion.put(id, position[0]);
+			}
+			Matcher matcher = DEPRECATED_URI.matcher(record);
+			while (matcher.find()) {
+				if (!matcher.group(1).equals(id)) {
+					deprecatedIds.add(matcher.group(1));
+				}
+			}
+			position[0]++;
+		});
+		records = position[0];
+		position[0] = 0;
+		try (Writer writer = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8))) {
+			writer.write("<RDF>");
+			forEachRecord(in, (id, record) -> {
+				try {
+					if (id.isEmpty()) {
+						writer.write(record);
+					} else if (deprecatedIds.contains(id)) {
+						deprecated++;
+					} else if (lastVersion.get(id) != position[0]) {
+						duplicates++;
+					} else {
+						writer.write(record);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				position[0]++;
+			});
+			writer.write("</RDF>");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("records=%s, duplicates=%s, deprecated=%s, kept=%s", records, duplicates, deprecated,
+				records - duplicates - deprecated);
+	}
+
+	// Pass the GND ID (see RecordId) and each top-level `Description` element, with its namespaces, to the consumer
+	private static void forEachRecord(File file, BiConsumer<String, String> consumer)
+			throws IOException, XMLStreamException {
+		XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+		try (InputStream in = new FileInputStream(file)) {
+			XMLEventReader eventReader = XMLInputFactory.newInstance()
+					.createXMLEventReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+			int depth = 0;
+			StringWriter record = null;
+			XMLEventWriter eventWriter = null;
+			RecordId id = null;
+			while (eventReader.hasNext()) {
+				XMLEvent event = eventReader.nextEvent();
+				if (event.isStartElement()) {
+					depth++;
+					if (depth == 2) {
+						record = new StringWriter();
+						eventWriter = outputFactory.createXMLEventWriter(record);
+						id = new RecordId();
+					}
+				}
+				if (eventWriter != null) {
+					eventWriter.add(event);
+					id.add(event);
+				}
+				if (event.isEndElement()) {
+					depth--;
+					if (depth == 1 && eventWriter != null) {
+						eventWriter.close();
+						eventWriter = null;
+						consumer.accept(id.id(), record.toString());
+					}
+				}
+			}
+		}
+	}
+}
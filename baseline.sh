@@ -32,12 +32,14 @@ cd ../..
 mkdir data/index/gnd_lds_$TODAY
 
 # convert RDF_XML to JSON lines
+# (if interrupted, run again with "runMain apps.ConvertBaseline --resume", same for "apps.Index baseline --resume")
 sbt --java-home $JAVA_HOME \
   -Ddata.rdfmxl=data/gnd_lds \
   -Dindex.entityfacts.index=entityfacts_$TODAY \
   -Dindex.prod.name=gnd_$TODAY \
   -Ddata.jsonlines=data/index/gnd_lds_$TODAY \
   -Dindex.delete.baseline=GND-deprecated-baseline_$TODAY.txt \
+  -Ddata.convert.threads=$(nproc) \
   "runMain apps.ConvertBaseline" \
   > ConvertBaseline_$TODAY.log 2>&1
 
@@ -45,15 +47,18 @@ sbt --java-home $JAVA_HOME \
 mkdir data/backup/gnd_lds/gnd_lds_$TODAY
 mv data/gnd_lds/authorities-*_lds.rdf.gz data/backup/gnd_lds/gnd_lds_$TODAY
 
-# index JSON lines
+# index JSON lines into gnd_$TODAY, optimise it, and switch the 'gnd' alias to 'gnd_$TODAY'
+# and the 'entityfacts' alias to 'entityfacts_$TODAY'
+# (to switch them back to the previous indexes, run "runMain apps.Index baseline-lifecycle --rollback")
 sbt \
-  -Dindex.prod.name=gnd_$TODAY \
+  -Dindex.lifecycle.name=gnd_$TODAY \
+  -Dindex.entityfacts.index=entityfacts_$TODAY \
   -Ddata.jsonlines=data/index/gnd_lds_$TODAY \
   -Dindex.delete.baseline=GND-deprecated-baseline_$TODAY.txt \
-  "runMain apps.Index baseline" \
+  "runMain apps.Index baseline-lifecycle" \
   > IndexBaseline_$TODAY.log 2>&1
 
-# index updates since last baseline (currently manual process)
+# index updates since last baseline (currently manual process, into gnd_$TODAY, already behind the 'gnd' alias)
 # export TODAY=20250404 # date used in the part above, see existing index
 # export LAST_BASE=20250313 # get date from description on https://data.dnb.de/opendata/ (e.g. "Stand: 13.03.2025")
 # mkdir data/index/gnd_since_$LAST_BASE
@@ -71,5 +76,3 @@ sbt \
 # export LAST_BASE=2025-03-13T00:00:00Z # get date from description on https://data.dnb.de/opendata/ (e.g. "Stand: 13.03.2025")
 # setsid nohup sbt -mem 4000 -Dindex.prod.name=gnd_$TODAY "runMain apps.ConvertUpdates $LAST_BASE" > ConvertUpdates_since_$LAST_BASE.log 2>&1 &
 # setsid nohup sbt -mem 4000 -Dindex.prod.name=gnd_$TODAY "runMain apps.Index updates" > IndexUpdates_since_$LAST_BASE.log 2>&1 &
-
-## finally, switch 'gnd' alias to 'gnd_$TODAY' and 'entityfacts' alias to 'entityfacts_$TODAY'
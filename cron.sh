@@ -5,6 +5,8 @@ set -uo pipefail # See http://redsymbol.net/articles/unofficial-bash-strict-mode
 # Execute via crontab by hduser@weywot1:
 # 40 * * * * [removed]  git/lobid-gnd ; bash -x cron.sh >> logs/cron.sh.log 2>&1"
 # 50 05 * * * [removed] git/lobid-gnd ; bash -x cron.sh 1day >> logs/cron.sh.log 2>&1"
+# Alternatively, run the resident update service instead of these cron jobs (see README):
+# setsid nohup sbt "runMain apps.UpdateDaemon" &
 
 IFS=$'\n\t'
 RECIPIENT=lobid-admin
@@ -5,4 +5,5 @@ set -eu
 
 echo "$(date) : Going to delete files older than 270 days"
 find data/backup/ -name "GND-updates*" -type f -mtime +269 -delete -print
-
+# backups in the compressed store (see apps.BackupStore)
+sbt "runMain apps.BackupStore prune 270"